@@ -20,11 +20,14 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 public interface ClasspathlessCompiler {
     static class Arguments {
         private boolean useHostSystemClasses = true;
         private boolean useHostJavaLangObject = true;
+        private boolean lazyDependencies = false;
         private List<String> compilerFlags = Collections.emptyList();
 
         /**
@@ -48,6 +51,13 @@ public interface ClasspathlessCompiler {
             return useHostJavaLangObject;
         }
 
+        /**
+         * @return The value of the option.
+         */
+        public boolean lazyDependencies() {
+            return lazyDependencies;
+        }
+
         /**
          * Set flags which will be passed to the compiler.
          * @param value A collection of compiler flags.
@@ -81,6 +91,19 @@ public interface ClasspathlessCompiler {
             useHostJavaLangObject = value;
             return this;
         }
+
+        /**
+         * Set flag whether or not to resolve the contents of packages only
+         * when the compiler lists them instead of scanning the dependencies of
+         * the sources before the compilation. If the compilation fails, it is
+         * repeated with the dependency scan.
+         * @param value The value of the option.
+         * @return this.
+         */
+        public Arguments lazyDependencies(boolean value) {
+            lazyDependencies = value;
+            return this;
+        }
     }
 
     /**
@@ -92,4 +115,72 @@ public interface ClasspathlessCompiler {
      */
     Collection<IdentifiedBytecode> compileClass(ClassesProvider classesProvider,
             Optional<MessagesListener> messagesListener, IdentifiedSource... javaSourceFiles);
+
+    /**
+     * Variant of {@link #compileClass} which passes the compiled classes to
+     * the sink instead of returning them. The default implementation passes
+     * them once the compilation has finished.
+     * @param classesProvider Provider for missing elements on the classpath.
+     * @param messagesListener Accepts any diagnostic or logging information
+     * from the compiler.
+     * @param outputSink Accepts the compiled bytecode of all javaSourceFiles.
+     * @param javaSourceFiles Files to compile.
+     */
+    default void compileClass(ClassesProvider classesProvider, Optional<MessagesListener> messagesListener,
+            OutputSink outputSink, IdentifiedSource... javaSourceFiles) {
+        for (IdentifiedBytecode bytecode : compileClass(classesProvider, messagesListener, javaSourceFiles)) {
+            outputSink.accept(bytecode);
+        }
+    }
+
+    /**
+     * Asynchronous variant of {@link #compileClass}. The default implementation
+     * runs compileClass using the executor and does not stop the compilation
+     * when the returned future is cancelled.
+     * @param classesProvider Provider for missing elements on the classpath.
+     * @param messagesListener Accepts any diagnostic or logging information
+     * from the compiler.
+     * @param executor The executor to run the compilation.
+     * @param javaSourceFiles Files to compile.
+     * @return A future of the compiled bytecode of all javaSourceFiles.
+     */
+    default CompletableFuture<Collection<IdentifiedBytecode>> compileClassAsync(ClassesProvider classesProvider,
+            Optional<MessagesListener> messagesListener, Executor executor, IdentifiedSource... javaSourceFiles) {
+        return CompletableFuture.supplyAsync(() -> compileClass(classesProvider, messagesListener, javaSourceFiles), executor);
+    }
+
+    /**
+     * Open a session which may be used for repeated compilations against the
+     * same provider. The default implementation retains no state and simply
+     * delegates to {@link #compileClass}.
+     * @param classesProvider Provider for missing elements on the classpath.
+     * @return A new session which must be closed by the caller.
+     */
+    default CompilationSession openSession(ClassesProvider classesProvider) {
+        return new CompilationSession() {
+            @Override
+            public Collection<IdentifiedBytecode> compileClass(
+                    Optional<MessagesListener> messagesListener, IdentifiedSource... javaSourceFiles) {
+                return ClasspathlessCompiler.this.compileClass(classesProvider, messagesListener, javaSourceFiles);
+            }
+
+            @Override
+            public void compileClass(Optional<MessagesListener> messagesListener, OutputSink outputSink,
+                    IdentifiedSource... javaSourceFiles) {
+                ClasspathlessCompiler.this.compileClass(classesProvider, messagesListener, outputSink, javaSourceFiles);
+            }
+
+            @Override
+            public void invalidate() {
+            }
+
+            @Override
+            public void invalidate(ClassIdentifier... names) {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
 }
@@ -0,0 +1,70 @@
+/*-
+ * Copyright (c) 2021 Marián Konček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.mkoncek.classpathless.api;
+
+import java.util.Collection;
+import java.util.Optional;
+
+/**
+ * A long-lived compilation context bound to a single ClassesProvider.
+ * Implementations may retain the state derived from the provider between
+ * subsequent compilations. Whenever the contents of the provider change, the
+ * session must be informed by one of the invalidate methods.
+ */
+public interface CompilationSession extends AutoCloseable {
+    /**
+     * @param messagesListener Accepts any diagnostic or logging information
+     * from the compiler.
+     * @param javaSourceFiles Files to compile.
+     * @return Compiled bytecode of all javaSourceFiles.
+     */
+    Collection<IdentifiedBytecode> compileClass(Optional<MessagesListener> messagesListener,
+            IdentifiedSource... javaSourceFiles);
+
+    /**
+     * Variant of {@link #compileClass(Optional, IdentifiedSource...)} which
+     * passes the compiled classes to the sink instead of returning them. The
+     * default implementation passes them once the compilation has finished.
+     * @param messagesListener Accepts any diagnostic or logging information
+     * from the compiler.
+     * @param outputSink Accepts the compiled bytecode of all javaSourceFiles.
+     * @param javaSourceFiles Files to compile.
+     */
+    default void compileClass(Optional<MessagesListener> messagesListener, OutputSink outputSink,
+            IdentifiedSource... javaSourceFiles) {
+        for (IdentifiedBytecode bytecode : compileClass(messagesListener, javaSourceFiles)) {
+            outputSink.accept(bytecode);
+        }
+    }
+
+    /**
+     * Discard all the retained state derived from the provider.
+     */
+    void invalidate();
+
+    /**
+     * Discard the retained state which depends on any of the given classes.
+     * @param names Names of classes which were added, changed or removed
+     * from the provider.
+     */
+    void invalidate(ClassIdentifier... names);
+
+    /**
+     * Release all the resources held by this session.
+     */
+    @Override
+    void close();
+}
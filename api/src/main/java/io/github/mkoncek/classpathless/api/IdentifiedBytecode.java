@@ -15,15 +15,97 @@
  */
 package io.github.mkoncek.classpathless.api;
 
+import java.nio.ByteBuffer;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
 /**
- * Compiled bytecode of a class with its fully qualified name.
+ * Compiled bytecode of a class with its fully qualified name. The bytecode is
+ * held either in an array or in a buffer, for example a slice of a memory
+ * mapped file, in which case it is only copied when {@link #getFile} is
+ * called for the first time.
+ *
+ * @implNote The array of the superclass is null for the bytecode held in a
+ * buffer, {@link #getFile} returns the copy instead.
  */
+@SuppressFBWarnings(value = {"EQ_DOESNT_OVERRIDE_EQUALS"},
+    justification = "intentionally using equals from superclass")
 public class IdentifiedBytecode extends IdentifiedFile {
+    private final ByteBuffer buffer;
+    // The copy of the buffer created by the first call of getFile
+    private volatile byte[] copy;
+
     /**
      * @param classIdentifier Fully qualified name of class.
      * @param file The bytecode content of the file.
      */
     public IdentifiedBytecode(ClassIdentifier classIdentifier, byte[] file) {
         super(classIdentifier, file);
+        this.buffer = null;
+    }
+
+    /**
+     * @param classIdentifier Fully qualified name of class.
+     * @param buffer The bytecode content of the file between the position and
+     * the limit of the buffer. The content must not be modified afterwards.
+     */
+    public IdentifiedBytecode(ClassIdentifier classIdentifier, ByteBuffer buffer) {
+        super(classIdentifier, null);
+        this.buffer = buffer.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * @return Whether the bytecode is held in a buffer and {@link #getFile}
+     * creates a copy of it on the first call.
+     */
+    public boolean isBufferBacked() {
+        return buffer != null;
+    }
+
+    /**
+     * @return A read-only view of the bytecode, positioned at its beginning.
+     * No copy is created.
+     */
+    public ByteBuffer getBuffer() {
+        if (buffer != null) {
+            return buffer.duplicate();
+        }
+        return ByteBuffer.wrap(super.getFile()).asReadOnlyBuffer();
+    }
+
+    /**
+     * @return The size of the bytecode in bytes.
+     */
+    public int getSize() {
+        if (buffer != null) {
+            return buffer.remaining();
+        }
+        return super.getFile().length;
+    }
+
+    /**
+     * @return The bytecode content of the file. If the bytecode is held in a
+     * buffer, it is copied on the first invocation and the same array is
+     * returned afterwards. The array must not be modified, use
+     * {@link #getBuffer} to read the bytecode without a copy.
+     */
+    @Override
+    @SuppressFBWarnings(value = {"EI_EXPOSE_REP"}, justification = "pure wrapper class")
+    public byte[] getFile() {
+        if (buffer != null) {
+            byte[] result = copy;
+            if (result == null) {
+                result = new byte[buffer.remaining()];
+                buffer.duplicate().get(result);
+                copy = result;
+            }
+            return result;
+        }
+        return super.getFile();
+    }
+
+    @Override
+    public String toString() {
+        return getClassIdentifier() + "*" + getSize();
     }
 }
@@ -0,0 +1,30 @@
+/*-
+ * Copyright (c) 2021 Marián Konček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.mkoncek.classpathless.api;
+
+/**
+ * Accepts the compiled classes one by one as soon as the compiler has written
+ * each of them, so that the caller does not need to hold the whole result.
+ */
+@FunctionalInterface
+public interface OutputSink {
+    /**
+     * @param bytecode The bytecode of a single compiled class. If the
+     * compilation fails afterwards, the classes accepted so far are not
+     * valid.
+     */
+    void accept(IdentifiedBytecode bytecode);
+}
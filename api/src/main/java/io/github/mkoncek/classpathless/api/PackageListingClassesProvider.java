@@ -0,0 +1,34 @@
+/*-
+ * Copyright (c) 2021 Marián Konček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.mkoncek.classpathless.api;
+
+import java.util.List;
+
+/**
+ * A provider which is able to list the contents of a single package without
+ * listing its whole classpath.
+ */
+public interface PackageListingClassesProvider extends ClassesProvider {
+    /**
+     * Warning: may include lambdas and will include inner classes with $-notations.
+     *
+     * @param packageName The fully qualified name of the package, empty for
+     * the unnamed package.
+     * @return All fully qualified classes of the package visible from the
+     * provider's classpath, excluding classes of its subpackages.
+     */
+    List<String> getPackageListing(String packageName);
+}
@@ -0,0 +1,116 @@
+/*-
+ * Copyright (c) 2021 Marián Konček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.mkoncek.classpathless.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.github.mkoncek.classpathless.ClasspathClassesProvider;
+import io.github.mkoncek.classpathless.api.ClassIdentifier;
+import io.github.mkoncek.classpathless.api.IdentifiedBytecode;
+
+/**
+ * Indexing of classpath directories or jars by {@link ClasspathClassesProvider},
+ * the classes are split evenly among the roots.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ClasspathIndexBenchmark {
+    @Param({"directory", "jar"})
+    public String layout;
+
+    @Param({"1", "8"})
+    public int roots;
+
+    @Param({"10", "100"})
+    public int packages;
+
+    @Param({"10", "100"})
+    public int classes;
+
+    private Path root;
+    private String classpath;
+    private ClassIdentifier lastClass;
+
+    @Setup
+    public void setup() throws IOException {
+        root = Files.createTempDirectory("cplc-benchmark");
+        var classNames = Workloads.classNames(packages, classes);
+        var paths = new ArrayList<String>();
+        for (int i = 0; i != roots; ++i) {
+            var part = classNames.subList(classNames.size() * i / roots, classNames.size() * (i + 1) / roots);
+            if (layout.equals("jar")) {
+                var jar = root.resolve("classes" + i + ".jar");
+                Workloads.writeJar(jar, part);
+                paths.add(jar.toString());
+            } else {
+                var directory = root.resolve("classes" + i);
+                Workloads.writeClassFiles(directory, part);
+                paths.add(directory.toString());
+            }
+        }
+        classpath = String.join(File.pathSeparator, paths);
+        lastClass = new ClassIdentifier(classNames.get(classNames.size() - 1));
+    }
+
+    @TearDown
+    public void tearDown() {
+        Workloads.delete(root);
+    }
+
+    @Benchmark
+    public ClasspathClassesProvider index() {
+        return new ClasspathClassesProvider(classpath);
+    }
+
+    /**
+     * A one-off lookup of a single class, which requires indexing.
+     */
+    @Benchmark
+    public Collection<IdentifiedBytecode> indexAndGetOne() {
+        return new ClasspathClassesProvider(classpath).getClass(lastClass);
+    }
+
+    /**
+     * A one-off lookup of a single class by its path.
+     */
+    @Benchmark
+    public Collection<IdentifiedBytecode> lazyGetOne() {
+        return ClasspathClassesProvider.lazy(classpath).getClass(lastClass);
+    }
+}
@@ -0,0 +1,74 @@
+/*-
+ * Copyright (c) 2021 Marián Konček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.mkoncek.classpathless.benchmarks;
+
+import java.util.Collection;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.github.mkoncek.classpathless.api.IdentifiedBytecode;
+import io.github.mkoncek.classpathless.api.IdentifiedSource;
+import io.github.mkoncek.classpathless.helpers.SimpleClassesProvider;
+import io.github.mkoncek.classpathless.impl.CompilerJavac;
+
+/**
+ * Recompilation of a class the previous bytecode of which is provided, as
+ * when a class is being redefined.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CompileBenchmark {
+    /**
+     * "wide" for a class with many members, "deep" for deeply nested classes.
+     */
+    @Param({"wide", "deep"})
+    public String shape;
+
+    @Param({"1", "16", "64"})
+    public int size;
+
+    private CompilerJavac compiler;
+    private SimpleClassesProvider provider;
+    private IdentifiedSource source;
+
+    @Setup
+    public void setup() {
+        source = shape.equals("wide") ? Workloads.wideSource("Wide", size) : Workloads.deepSource("Deep", size);
+        provider = new SimpleClassesProvider(Workloads.compile(source));
+        compiler = new CompilerJavac();
+    }
+
+    @Benchmark
+    public Collection<IdentifiedBytecode> compileClass() {
+        return compiler.compileClass(provider, Optional.empty(), source);
+    }
+}
@@ -0,0 +1,76 @@
+/*-
+ * Copyright (c) 2021 Marián Konček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.mkoncek.classpathless.benchmarks;
+
+import java.util.Collection;
+import java.util.SortedSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.github.mkoncek.classpathless.api.IdentifiedBytecode;
+import io.github.mkoncek.classpathless.util.BytecodeExtractor;
+
+/**
+ * Dependency extraction from the classes of the running JDK.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DependencyBenchmark {
+    @Param({"java.lang.Object", "java.util.HashMap", "java.util.concurrent.ConcurrentHashMap"})
+    public String className;
+
+    private Workloads.JdkClassesProvider provider;
+    private IdentifiedBytecode bytecode;
+    private byte[] classFile;
+
+    @Setup
+    public void setup() {
+        provider = new Workloads.JdkClassesProvider();
+        bytecode = provider.get(className);
+        classFile = bytecode.getFile();
+    }
+
+    @Benchmark
+    public SortedSet<String> extractTypenames() {
+        return BytecodeExtractor.extractTypenames(classFile);
+    }
+
+    @Benchmark
+    public Collection<String> extractDependencies() {
+        return BytecodeExtractor.extractDependencies(bytecode, provider);
+    }
+
+    @Benchmark
+    public Collection<String> extractDependenciesParallel() {
+        return BytecodeExtractor.extractDependencies(bytecode, provider, ForkJoinPool.commonPool());
+    }
+}
@@ -0,0 +1,67 @@
+/*-
+ * Copyright (c) 2021 Marián Konček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.mkoncek.classpathless.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.github.mkoncek.classpathless.impl.LoggingSwitch;
+
+/**
+ * Calls of a disabled {@link LoggingSwitch}, run with {@code -prof gc} to
+ * see the allocation rate, which is expected to be zero.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LoggingBenchmark {
+    private LoggingSwitch loggingSwitch = new LoggingSwitch.Null();
+    private String className = "java.lang.Object";
+    private Object location = new Object();
+
+    @Benchmark
+    public void logln() {
+        loggingSwitch.logln(Level.FINE, "Loading class from ClassProvider: \"{0}\"", className);
+    }
+
+    @Benchmark
+    public void loglnSupplier() {
+        loggingSwitch.logln(Level.FINE, () -> "Loading class from ClassProvider: " + className);
+    }
+
+    @Benchmark
+    public void trace() {
+        loggingSwitch.trace(this, "list", location, className, location, Boolean.TRUE);
+    }
+
+    @Benchmark
+    public void loglnVarargs() {
+        loggingSwitch.logln(Level.FINE, "{0} {1} {2} {3}", className, location, className, location);
+    }
+}
@@ -0,0 +1,209 @@
+/*-
+ * Copyright (c) 2021 Marián Konček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.mkoncek.classpathless.benchmarks;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import io.github.mkoncek.classpathless.api.ClassIdentifier;
+import io.github.mkoncek.classpathless.api.ClassesProvider;
+import io.github.mkoncek.classpathless.api.IdentifiedBytecode;
+import io.github.mkoncek.classpathless.api.IdentifiedSource;
+import io.github.mkoncek.classpathless.helpers.SimpleClassesProvider;
+import io.github.mkoncek.classpathless.impl.CompilerJavac;
+
+/**
+ * Generators of synthetic workloads parameterized by their size.
+ */
+public class Workloads {
+    /**
+     * @param name The name of the class.
+     * @param size The number of fields, methods and nested classes.
+     * @return The source of a class with a flat structure.
+     */
+    public static IdentifiedSource wideSource(String name, int size) {
+        var builder = new StringBuilder();
+        builder.append("public class ").append(name).append(" {\n");
+        for (int i = 0; i != size; ++i) {
+            builder.append("    java.util.List<String> field").append(i).append(" = new java.util.ArrayList<>();\n");
+            builder.append("    public int method").append(i).append("(int value) {\n");
+            builder.append("        field").append(i).append(".add(String.valueOf(value));\n");
+            builder.append("        return field").append(i).append(".size() + value * ").append(i).append(";\n");
+            builder.append("    }\n");
+            builder.append("    public static class Nested").append(i).append(" extends java.util.HashMap<String, Integer> { }\n");
+        }
+        builder.append("}\n");
+        return new IdentifiedSource(new ClassIdentifier(name), builder.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param name The name of the outermost class.
+     * @param depth The number of nested classes.
+     * @return The source of a class with nested classes each of which extends
+     * the preceding one, similarly to the "deepnesting" test resources.
+     */
+    public static IdentifiedSource deepSource(String name, int depth) {
+        var builder = new StringBuilder();
+        builder.append("public class ").append(name).append(" {\n");
+        var outer = name;
+        for (int i = 0; i != depth; ++i) {
+            var inner = "N" + i;
+            builder.append("public static class ").append(inner).append(" extends ").append(outer).append(" {\n");
+            builder.append("public ").append(inner).append(" next() { return this; }\n");
+            outer = outer + "." + inner;
+        }
+        for (int i = 0; i != depth + 1; ++i) {
+            builder.append("}\n");
+        }
+        return new IdentifiedSource(new ClassIdentifier(name), builder.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param packages The number of packages, see {@link #packageName}.
+     * @param classes The number of classes in each package.
+     * @return The sorted fully qualified names of the classes.
+     */
+    public static List<String> classNames(int packages, int classes) {
+        var result = new ArrayList<String>(packages * classes);
+        for (int p = 0; p != packages; ++p) {
+            var packageName = packageName(p);
+            for (int c = 0; c != classes; ++c) {
+                result.add(packageName + ".C" + c);
+                result.add(packageName + ".C" + c + "$Inner");
+            }
+        }
+        result.sort(Comparator.naturalOrder());
+        return result;
+    }
+
+    /**
+     * @return The name of the package, the packages form a tree with at most
+     * ten subpackages of each package.
+     */
+    public static String packageName(int index) {
+        var result = new StringBuilder("pkg");
+        for (var digit : Integer.toString(index).toCharArray()) {
+            result.append(".p").append(digit);
+        }
+        return result.toString();
+    }
+
+    /**
+     * Write empty class files of the names to a directory.
+     * @param root The root directory of the class files.
+     * @param classNames The fully qualified names.
+     */
+    public static void writeClassFiles(Path root, Collection<String> classNames) {
+        try {
+            for (var className : classNames) {
+                var file = root.resolve(className.replace('.', '/') + ".class");
+                Files.createDirectories(file.getParent());
+                Files.write(file, new byte[0]);
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Write a jar of empty class files of the names.
+     * @param file The jar file.
+     * @param classNames The fully qualified names.
+     */
+    public static void writeJar(Path file, Collection<String> classNames) {
+        try (var jar = new JarOutputStream(Files.newOutputStream(file))) {
+            for (var className : classNames) {
+                jar.putNextEntry(new ZipEntry(className.replace('.', '/') + ".class"));
+                jar.closeEntry();
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Recursively delete a directory.
+     */
+    public static void delete(Path root) {
+        try (var stream = Files.walk(root)) {
+            for (var path : (Iterable<Path>) stream.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * @return The bytecode of the sources compiled without any dependencies.
+     */
+    public static Collection<IdentifiedBytecode> compile(IdentifiedSource... sources) {
+        return new CompilerJavac().compileClass(new SimpleClassesProvider(), Optional.empty(), sources);
+    }
+
+    /**
+     * A provider of the classes of the running JDK. The bytecode is loaded
+     * once and retained, so that it does not contribute to the measurements
+     * after the warmup.
+     */
+    public static class JdkClassesProvider implements ClassesProvider {
+        private Map<String, Optional<IdentifiedBytecode>> classes = new ConcurrentHashMap<>();
+
+        private static Optional<IdentifiedBytecode> load(String className) {
+            try (var is = ClassLoader.getSystemResourceAsStream(className.replace('.', '/') + ".class")) {
+                if (is == null) {
+                    return Optional.empty();
+                }
+                return Optional.of(new IdentifiedBytecode(new ClassIdentifier(className), is.readAllBytes()));
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+
+        /**
+         * @return The bytecode of the JDK class.
+         */
+        public IdentifiedBytecode get(String className) {
+            return classes.computeIfAbsent(className, JdkClassesProvider::load).orElseThrow();
+        }
+
+        @Override
+        public Collection<IdentifiedBytecode> getClass(ClassIdentifier... names) {
+            var result = new ArrayList<IdentifiedBytecode>();
+            for (var name : names) {
+                classes.computeIfAbsent(name.getFullName(), JdkClassesProvider::load).ifPresent(result::add);
+            }
+            return result;
+        }
+
+        @Override
+        public List<String> getClassPathListing() {
+            return new ArrayList<>();
+        }
+    }
+}
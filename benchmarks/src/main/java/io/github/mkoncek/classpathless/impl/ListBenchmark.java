@@ -0,0 +1,114 @@
+/*-
+ * Copyright (c) 2021 Marián Konček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.mkoncek.classpathless.impl;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
+import javax.tools.StandardLocation;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.github.mkoncek.classpathless.api.ClasspathlessCompiler;
+import io.github.mkoncek.classpathless.benchmarks.Workloads;
+import io.github.mkoncek.classpathless.helpers.NullClassesProvider;
+
+/**
+ * Listing of packages by {@link InMemoryFileManager}, the benchmark resides
+ * in the same package in order to access the package-private setters and
+ * the package index.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ListBenchmark {
+    @Param({"10", "1000"})
+    public int packages;
+
+    @Param({"10", "100"})
+    public int classes;
+
+    private List<String> classNames;
+    private InMemoryFileManager fileManager;
+    private PackageIndex index;
+    private LoggingSwitch loggingSwitch = new LoggingSwitch.Null();
+
+    @Setup
+    public void setup() {
+        classNames = Workloads.classNames(packages, classes);
+        fileManager = new InMemoryFileManager(null);
+        fileManager.setArguments(new ClasspathlessCompiler.Arguments());
+        fileManager.setClassesProvider(new NullClassesProvider());
+        fileManager.setAvailableClasses(classNames);
+
+        index = new PackageIndex();
+        for (var className : classNames) {
+            index.add(className);
+        }
+    }
+
+    /**
+     * Registration of all the class names as done for each compilation.
+     */
+    @Benchmark
+    public InMemoryFileManager setAvailableClasses() {
+        fileManager.setAvailableClasses(classNames);
+        return fileManager;
+    }
+
+    /**
+     * Repeated listing of a single package, as done by the compiler.
+     */
+    @Benchmark
+    public Iterable<JavaFileObject> list() throws IOException {
+        return fileManager.list(StandardLocation.CLASS_PATH, Workloads.packageName(0), Set.of(Kind.CLASS), false);
+    }
+
+    /**
+     * Repeated listing of the whole tree.
+     */
+    @Benchmark
+    public Iterable<JavaFileObject> listRecursive() throws IOException {
+        return fileManager.list(StandardLocation.CLASS_PATH, "", Set.of(Kind.CLASS), true);
+    }
+
+    /**
+     * Listing of the whole tree with none of the listings memoized, the
+     * memoized listings are cleared before each invocation.
+     */
+    @Benchmark
+    public List<JavaFileObject> listRecursiveCold() {
+        index.clearListings();
+        return index.list("", true, className -> new InMemoryJavaClassFileObject(className, null, loggingSwitch));
+    }
+}
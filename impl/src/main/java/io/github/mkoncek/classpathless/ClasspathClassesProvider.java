@@ -15,7 +15,6 @@
  */
 package io.github.mkoncek.classpathless;
 
-import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.UncheckedIOException;
@@ -27,44 +26,209 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.logging.Level;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import io.github.mkoncek.classpathless.api.ClassIdentifier;
 import io.github.mkoncek.classpathless.api.ClassesProvider;
 import io.github.mkoncek.classpathless.api.IdentifiedBytecode;
+import io.github.mkoncek.classpathless.api.PackageListingClassesProvider;
+import io.github.mkoncek.classpathless.impl.LoggingSwitch;
 
-public class ClasspathClassesProvider implements ClassesProvider {
+/**
+ * A provider of the classes of directories and jar files. If multiple roots of
+ * the classpath contain the same class, the later one takes precedence. The
+ * roots and the subdirectories of the directory roots are indexed in parallel.
+ *
+ * @implNote A provider created by {@link #lazy(String)} does not index the
+ * roots until the whole listing is requested. Until then the classes are
+ * looked up as {@code root/pkg/Name.class} in the directories and in the
+ * central directories of the jars, which are read on the first lookup.
+ */
+public class ClasspathClassesProvider implements PackageListingClassesProvider {
     static final String CP_SEPARATOR = System.getProperty("path.separator");
 
     public List<String> classpath = Collections.emptyList();
     public Map<String, Path> classesToClassFilePaths;
+    // The classes of jars which are not overridden by a directory
+    Map<String, JarIndex> classesToJars;
+
+    // The roots in the order of precedence, only used before indexing
+    private final List<LazyRoot> lazyRoots;
+    private volatile boolean indexed = false;
+    // Package name -> fully qualified names of its classes, built on demand
+    private volatile Map<String, List<String>> packages = null;
+
+    /**
+     * A root of the classpath which is looked up without indexing it.
+     */
+    private static class LazyRoot {
+        private Path path;
+        private boolean directory;
+        private volatile JarIndex jar = null;
+        private volatile boolean unreadable = false;
+
+        private LazyRoot(Path path, boolean directory) {
+            this.path = path;
+            this.directory = directory;
+        }
+
+        /**
+         * @return The index of the jar or null if it could not be read.
+         */
+        private JarIndex getJar() {
+            var result = jar;
+            if (result == null && !unreadable) {
+                synchronized (this) {
+                    result = jar;
+                    if (result == null && !unreadable) {
+                        result = openJar(path);
+                        jar = result;
+                        unreadable = result == null;
+                    }
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * @param classpath The roots.
+     * @param lazy Whether the classes are looked up by their paths until the
+     * whole listing is requested, otherwise the caller fills the maps.
+     */
+    ClasspathClassesProvider(List<String> classpath, boolean lazy) {
+        this.classpath = classpath;
+        this.classesToClassFilePaths = new HashMap<>();
+        this.classesToJars = new HashMap<>();
+
+        var roots = new ArrayList<LazyRoot>(this.classpath.size());
+        if (lazy) {
+            for (int i = this.classpath.size() - 1; i >= 0; --i) {
+                var root = Paths.get(this.classpath.get(i));
+                if (Files.isDirectory(root)) {
+                    roots.add(new LazyRoot(root, true));
+                } else if (Files.isRegularFile(root)) {
+                    roots.add(new LazyRoot(root, false));
+                }
+            }
+        }
+        this.lazyRoots = roots;
+        this.indexed = !lazy;
+    }
+
+    /**
+     * @param classpath The classpath.
+     * @return A provider which does not index the roots until the whole
+     * listing is requested.
+     */
+    public static ClasspathClassesProvider lazy(String classpath) {
+        return new ClasspathClassesProvider(classpath == null ? Collections.emptyList() : obtainClasspath(classpath), true);
+    }
 
     @SuppressFBWarnings("CT_CONSTRUCTOR_THROW")
     public ClasspathClassesProvider(String classpath) {
+        this(classpath, null);
+    }
+
+    /**
+     * @param classpath The classpath.
+     * @param indexFile If not null, the file in which the class names of the
+     * roots are cached between the runs. Only the roots which have changed
+     * since the file was written are indexed again.
+     */
+    @SuppressFBWarnings("CT_CONSTRUCTOR_THROW")
+    public ClasspathClassesProvider(String classpath, Path indexFile) {
         super();
+        this.lazyRoots = Collections.emptyList();
 
         if (classpath != null) {
             this.classpath = obtainClasspath(classpath);
         }
 
-        this.classesToClassFilePaths = findAllClasses(this.classpath);
+        this.classesToClassFilePaths = new HashMap<>();
+        this.classesToJars = new HashMap<>();
+
+        if (indexFile == null) {
+            findAllClasses(this.classpath, classesToClassFilePaths, classesToJars,
+                    ClasspathIndexCache.empty(), ForkJoinPool.commonPool());
+        } else {
+            var cache = ClasspathIndexCache.load(indexFile);
+            findAllClasses(this.classpath, classesToClassFilePaths, classesToJars, cache, ForkJoinPool.commonPool());
+            try {
+                cache.save(indexFile);
+            } catch (IOException ex) {
+                // The classes were indexed, only the next run is slower
+                new LoggingSwitch().logln(Level.WARNING, "Could not save the classpath index to {0}: {1}", indexFile, ex);
+            }
+        }
+        this.indexed = true;
+    }
+
+    private synchronized void ensureIndexed() {
+        if (!indexed) {
+            findAllClasses(this.classpath, classesToClassFilePaths, classesToJars,
+                    ClasspathIndexCache.empty(), ForkJoinPool.commonPool());
+            indexed = true;
+        }
+    }
+
+    private static IdentifiedBytecode readClassFile(ClassIdentifier identifier, Path path) {
+        try (var is = new FileInputStream(path.toFile())) {
+            var bytes = is.readAllBytes();
+            return new IdentifiedBytecode(identifier, bytes);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private IdentifiedBytecode lookUp(ClassIdentifier identifier) {
+        var relative = identifier.getFullName().replace('.', '/') + ".class";
+        for (var root : lazyRoots) {
+            if (root.directory) {
+                var pathOfClass = root.path.resolve(relative);
+                if (Files.isRegularFile(pathOfClass)) {
+                    return readClassFile(identifier, pathOfClass);
+                }
+            } else {
+                var jar = root.getJar();
+                var bytecode = jar == null ? null : jar.read(identifier);
+                if (bytecode != null) {
+                    return bytecode;
+                }
+            }
+        }
+        return null;
     }
 
     @Override
     public Collection<IdentifiedBytecode> getClass(ClassIdentifier... names) {
         var result = new ArrayList<IdentifiedBytecode>();
 
+        if (!indexed) {
+            for (var indentifier : names) {
+                var bytecode = lookUp(indentifier);
+                if (bytecode != null) {
+                    result.add(bytecode);
+                }
+            }
+            return result;
+        }
+
         for (var indentifier : names) {
             var pathOfClass = classesToClassFilePaths.get(indentifier.getFullName());
 
             if (pathOfClass != null) {
-                try (var is = new FileInputStream(pathOfClass.toFile())) {
-                    var bytes = is.readAllBytes();
-                    result.add(new IdentifiedBytecode(indentifier, bytes));
-                } catch (IOException ex) {
-                    throw new UncheckedIOException(ex);
+                result.add(readClassFile(indentifier, pathOfClass));
+            } else {
+                var jar = classesToJars.get(indentifier.getFullName());
+                if (jar != null) {
+                    result.add(jar.read(indentifier));
                 }
             }
         }
@@ -72,9 +236,75 @@ public class ClasspathClassesProvider implements ClassesProvider {
         return result;
     }
 
+    /**
+     * @implNote A lazy provider indexes all the roots at this point.
+     */
     @Override
     public List<String> getClassPathListing() {
-        return new ArrayList<>(classesToClassFilePaths.keySet());
+        ensureIndexed();
+        var result = new ArrayList<String>(classesToClassFilePaths.size() + classesToJars.size());
+        result.addAll(classesToClassFilePaths.keySet());
+        result.addAll(classesToJars.keySet());
+        return result;
+    }
+
+    @Override
+    public List<String> getPackageListing(String packageName) {
+        if (!indexed) {
+            var result = new LinkedHashSet<String>();
+            var prefix = packageName.isEmpty() ? "" : packageName + ".";
+            for (var root : lazyRoots) {
+                if (root.directory) {
+                    var directory = packageName.isEmpty() ? root.path : root.path.resolve(packageName.replace('.', '/'));
+                    if (Files.isDirectory(directory)) {
+                        try (var children = Files.list(directory)) {
+                            for (var it = children.iterator(); it.hasNext();) {
+                                var child = it.next();
+                                var name = String.valueOf(child.getFileName());
+                                if (name.endsWith(".class") && !Files.isDirectory(child)) {
+                                    result.add(prefix + name.substring(0, name.length() - 6));
+                                }
+                            }
+                        } catch (IOException ex) {
+                            throw new UncheckedIOException(ex);
+                        }
+                    }
+                } else {
+                    var jar = root.getJar();
+                    if (jar != null) {
+                        result.addAll(jar.getPackageListing(packageName));
+                    }
+                }
+            }
+            return new ArrayList<>(result);
+        }
+
+        var result = packages;
+        if (result == null) {
+            result = buildPackages();
+        }
+        return Collections.unmodifiableList(result.getOrDefault(packageName, Collections.emptyList()));
+    }
+
+    private synchronized Map<String, List<String>> buildPackages() {
+        var result = packages;
+        if (result == null) {
+            result = new HashMap<String, List<String>>();
+            for (var className : getClassPathListing()) {
+                int dot = className.lastIndexOf('.');
+                result.computeIfAbsent(dot == -1 ? "" : className.substring(0, dot), key -> new ArrayList<>()).add(className);
+            }
+            packages = result;
+        }
+        return result;
+    }
+
+    /**
+     * Drop the listings of the packages after the maps have changed. The
+     * caller must hold the lock of the provider while changing the maps.
+     */
+    void invalidatePackages() {
+        packages = null;
     }
 
     /**
@@ -108,29 +338,77 @@ public class ClasspathClassesProvider implements ClassesProvider {
         return result;
     }
 
-    static Map<String, Path> findAllClasses(List<String> classpath) {
-        // TODO handle jars
+    /**
+     * The classes of a single root of the classpath.
+     */
+    private static class RootClasses {
+        private Map<String, Path> classFiles = Collections.emptyMap();
+        private JarIndex jar = null;
+    }
+
+    /**
+     * Like javac, a file of the classpath which is not a valid jar is skipped.
+     */
+    private static void logUnreadable(Path root, Exception ex) {
+        new LoggingSwitch().logln(Level.WARNING, "Skipping the classpath entry {0} which could not be read as a jar: {1}", root, ex);
+    }
+
+    /**
+     * @return The index of the jar or null if it could not be read.
+     */
+    private static JarIndex openJar(Path root) {
+        try {
+            return JarIndex.open(root);
+        } catch (IOException | RuntimeException ex) {
+            logUnreadable(root, ex);
+            return null;
+        }
+    }
 
-        var result = new HashMap<String, Path>();
+    private static RootClasses indexRoot(Path root, ClasspathIndexCache cache) {
+        var result = new RootClasses();
+        if (Files.isDirectory(root)) {
+            result.classFiles = cache.directory(root);
+        } else if (Files.isRegularFile(root)) {
+            try {
+                result.jar = cache.jar(root);
+            } catch (IOException | RuntimeException ex) {
+                logUnreadable(root, ex);
+            }
+        }
+        return result;
+    }
 
+    /**
+     * Index the classes of the roots in parallel.
+     * @param classpath The roots, either directories or jar files.
+     * @param classFiles The map to which the class files of directories are added.
+     * @param jarClasses The map to which the classes of jars are added.
+     * @param cache The cache of the class names of the roots.
+     * @param pool The pool in which the roots and their subdirectories are
+     * indexed.
+     */
+    static void findAllClasses(List<String> classpath, Map<String, Path> classFiles, Map<String, JarIndex> jarClasses,
+            ClasspathIndexCache cache, ForkJoinPool pool) {
+        var tasks = new ArrayList<ForkJoinTask<RootClasses>>(classpath.size());
         for (var root : classpath) {
-            var root_path = Paths.get(root);
-            if (Files.isDirectory(root_path)) {
-                try {
-                    Files.walk(root_path).filter(p -> !Files.isDirectory(p) &&
-                            p.toString().endsWith(".class"))
-                    .forEach(p -> {
-                        var relativeString = root_path.relativize(p).toString();
-                        relativeString = relativeString.substring(0, relativeString.length() - 6)
-                                .replace(File.separator, ".");
-                        result.put(relativeString, p);
-                    });
-                } catch (IOException ex) {
-                    throw new UncheckedIOException(ex);
+            var rootPath = Paths.get(root);
+            tasks.add(pool.submit(() -> indexRoot(rootPath, cache)));
+        }
+
+        // Merge in the order of the roots, so that the later ones take precedence
+        for (var task : tasks) {
+            var rootClasses = task.join();
+            for (var entry : rootClasses.classFiles.entrySet()) {
+                classFiles.put(entry.getKey(), entry.getValue());
+                jarClasses.remove(entry.getKey());
+            }
+            if (rootClasses.jar != null) {
+                for (var className : rootClasses.jar.getClassNames()) {
+                    jarClasses.put(className, rootClasses.jar);
+                    classFiles.remove(className);
                 }
             }
         }
-
-        return result;
     }
 }
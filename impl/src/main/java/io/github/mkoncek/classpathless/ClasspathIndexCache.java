@@ -0,0 +1,323 @@
+/*-
+ * Copyright (c) 2021 Marián Konček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.mkoncek.classpathless;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The class names of classpath roots saved between the runs. A jar is
+ * validated by its modification time and size. A directory is validated by
+ * the modification times of all its subdirectories, only the directories
+ * which have changed are listed again. The methods may be called concurrently,
+ * the subdirectories are indexed in parallel in the fork-join pool of the
+ * caller.
+ *
+ * @implNote A modification time which is too close to the time of indexing
+ * is not trusted, because the file system might not have recorded a later
+ * modification within the same tick.
+ */
+final class ClasspathIndexCache {
+    private static final String FORMAT = "cplc-classpath-index-1";
+    private static final long RACY_MILLIS = 2000;
+
+    /**
+     * The contents of a single directory of a root.
+     */
+    private static class Directory {
+        private long modified;
+        private List<String> classes = new ArrayList<>();
+        private List<String> subdirectories = new ArrayList<>();
+    }
+
+    /**
+     * The state of a jar or a directory root when it was indexed.
+     */
+    private static class Root {
+        private long indexed;
+        // Jar roots only
+        private long modified;
+        private long size;
+        private List<String> classNames;
+        // Directory roots only, relative path with slashes -> directory
+        private Map<String, Directory> directories;
+
+        private boolean isJar() {
+            return classNames != null;
+        }
+
+        private boolean isStable(long modified) {
+            return modified + RACY_MILLIS < indexed;
+        }
+    }
+
+    private Map<String, Root> loaded = new HashMap<>();
+    private Map<String, Root> current = new ConcurrentSkipListMap<>();
+    private AtomicBoolean changed = new AtomicBoolean();
+
+    private ClasspathIndexCache() {
+    }
+
+    /**
+     * @return A cache which indexes every root.
+     */
+    static ClasspathIndexCache empty() {
+        return new ClasspathIndexCache();
+    }
+
+    private static String key(Path root) {
+        return root.toAbsolutePath().normalize().toString();
+    }
+
+    /**
+     * @param file The file written by {@link #save}.
+     * @return The cache read from the file, or an empty cache if the file does
+     * not exist or is not valid.
+     */
+    static ClasspathIndexCache load(Path file) {
+        var result = new ClasspathIndexCache();
+        try (var is = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (!is.readUTF().equals(FORMAT)) {
+                return result;
+            }
+            for (int i = readCount(is); i != 0; --i) {
+                var key = is.readUTF();
+                var root = new Root();
+                root.indexed = is.readLong();
+                if (is.readBoolean()) {
+                    root.modified = is.readLong();
+                    root.size = is.readLong();
+                    root.classNames = readList(is);
+                } else {
+                    root.directories = new TreeMap<>();
+                    for (int j = readCount(is); j != 0; --j) {
+                        var path = is.readUTF();
+                        var directory = new Directory();
+                        directory.modified = is.readLong();
+                        directory.classes = readList(is);
+                        directory.subdirectories = readList(is);
+                        root.directories.put(path, directory);
+                    }
+                }
+                result.loaded.put(key, root);
+            }
+        } catch (NoSuchFileException ex) {
+            return result;
+        } catch (IOException | RuntimeException ex) {
+            // The cache is rebuilt
+            result.loaded.clear();
+        }
+        return result;
+    }
+
+    private static int readCount(DataInputStream is) throws IOException {
+        int count = is.readInt();
+        if (count < 0) {
+            throw new IOException("Invalid count: " + count);
+        }
+        return count;
+    }
+
+    private static List<String> readList(DataInputStream is) throws IOException {
+        int size = readCount(is);
+        var result = new ArrayList<String>(size);
+        for (int i = 0; i != size; ++i) {
+            result.add(is.readUTF());
+        }
+        return result;
+    }
+
+    private static void writeList(DataOutputStream os, List<String> list) throws IOException {
+        os.writeInt(list.size());
+        for (var value : list) {
+            os.writeUTF(value);
+        }
+    }
+
+    /**
+     * Write the roots indexed by this cache, if any of them changed.
+     * @param file The file to write, it is replaced atomically.
+     * @throws IOException If the file could not be written.
+     */
+    void save(Path file) throws IOException {
+        if (!changed.get() && current.keySet().equals(loaded.keySet())) {
+            return;
+        }
+        var temporary = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (var os = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                os.writeUTF(FORMAT);
+                os.writeInt(current.size());
+                for (var entry : current.entrySet()) {
+                    var root = entry.getValue();
+                    os.writeUTF(entry.getKey());
+                    os.writeLong(root.indexed);
+                    os.writeBoolean(root.isJar());
+                    if (root.isJar()) {
+                        os.writeLong(root.modified);
+                        os.writeLong(root.size);
+                        writeList(os, root.classNames);
+                    } else {
+                        var directories = new TreeMap<>(root.directories);
+                        os.writeInt(directories.size());
+                        for (var directory : directories.entrySet()) {
+                            os.writeUTF(directory.getKey());
+                            os.writeLong(directory.getValue().modified);
+                            writeList(os, directory.getValue().classes);
+                            writeList(os, directory.getValue().subdirectories);
+                        }
+                    }
+                }
+            }
+            Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * @param jar The jar root.
+     * @return The index of the jar, not read if its class names are cached.
+     * @throws IOException If the jar could not be read.
+     */
+    JarIndex jar(Path jar) throws IOException {
+        var key = key(jar);
+        long indexed = System.currentTimeMillis();
+        var attributes = Files.readAttributes(jar, BasicFileAttributes.class);
+        long modified = attributes.lastModifiedTime().toMillis();
+
+        var previous = loaded.get(key);
+        if (previous != null && previous.isJar() && previous.modified == modified
+                && previous.size == attributes.size() && previous.isStable(modified)) {
+            current.put(key, previous);
+            return JarIndex.deferred(jar, previous.classNames);
+        }
+
+        var result = JarIndex.open(jar);
+        var root = new Root();
+        root.indexed = indexed;
+        root.modified = modified;
+        root.size = attributes.size();
+        root.classNames = new ArrayList<>(result.getClassNames());
+        current.put(key, root);
+        changed.set(true);
+        return result;
+    }
+
+    /**
+     * @param directory The directory root.
+     * @return The class files of the directory keyed by the fully qualified
+     * names.
+     */
+    Map<String, Path> directory(Path directory) {
+        var key = key(directory);
+        var previous = loaded.get(key);
+        var root = new Root();
+        root.indexed = System.currentTimeMillis();
+        root.directories = new ConcurrentHashMap<>();
+
+        var result = new ConcurrentHashMap<String, Path>();
+        new DirectoryTask(directory, "", previous == null || previous.isJar() ? null : previous, root, result).invoke();
+        current.put(key, root);
+        return result;
+    }
+
+    /**
+     * Indexes a directory and forks a task for each of its subdirectories.
+     */
+    @SuppressWarnings("serial")
+    private class DirectoryTask extends RecursiveAction {
+        private Path base;
+        private String relative;
+        private Root previous;
+        private Root root;
+        private Map<String, Path> result;
+
+        private DirectoryTask(Path base, String relative, Root previous, Root root, Map<String, Path> result) {
+            this.base = base;
+            this.relative = relative;
+            this.previous = previous;
+            this.root = root;
+            this.result = result;
+        }
+
+        @Override
+        protected void compute() {
+            var path = relative.isEmpty() ? base : base.resolve(relative);
+            long modified;
+            try {
+                modified = Files.getLastModifiedTime(path).toMillis();
+            } catch (NoSuchFileException ex) {
+                changed.set(true);
+                return;
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+
+            var directory = previous == null ? null : previous.directories.get(relative);
+            if (directory == null || directory.modified != modified || !previous.isStable(modified)) {
+                changed.set(true);
+                directory = new Directory();
+                directory.modified = modified;
+                try (var stream = Files.list(path)) {
+                    for (var child : (Iterable<Path>) stream.sorted()::iterator) {
+                        var name = String.valueOf(child.getFileName());
+                        if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                            directory.subdirectories.add(name);
+                        } else if (name.endsWith(".class") && !Files.isDirectory(child)) {
+                            directory.classes.add(name.substring(0, name.length() - 6));
+                        }
+                    }
+                } catch (NoSuchFileException ex) {
+                    return;
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }
+
+            root.directories.put(relative, directory);
+            var packagePrefix = relative.isEmpty() ? "" : relative.replace('/', '.') + ".";
+            for (var className : directory.classes) {
+                result.put(packagePrefix + className, path.resolve(className + ".class"));
+            }
+            var subtasks = new ArrayList<DirectoryTask>(directory.subdirectories.size());
+            for (var subdirectory : directory.subdirectories) {
+                subtasks.add(new DirectoryTask(base, relative.isEmpty() ? subdirectory : relative + "/" + subdirectory,
+                        previous, root, result));
+            }
+            invokeAll(subtasks);
+        }
+    }
+}
@@ -0,0 +1,375 @@
+/*-
+ * Copyright (c) 2021 Marián Konček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.mkoncek.classpathless;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+import io.github.mkoncek.classpathless.api.ClassIdentifier;
+import io.github.mkoncek.classpathless.api.IdentifiedBytecode;
+
+/**
+ * The class files of a jar, indexed by reading its central directory once.
+ * The jar is memory-mapped and its file is not kept open, the entries are
+ * read directly from the mapping. A jar whose class names are already known
+ * is mapped on the first read. A jar which may be rewritten in place is read
+ * into memory instead, as reading a mapping of a truncated file crashes.
+ *
+ * @implNote Stored entries are returned as views of the mapping without
+ * copying. Only the base entries of multi-release jars are indexed.
+ */
+final class JarIndex {
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_HEADER = 0x06054b50;
+    private static final int ZIP64_END_LOCATOR = 0x07064b50;
+    private static final int ZIP64_END_HEADER = 0x06064b50;
+
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    private static final int END_SIZE = 22;
+    private static final int MAX_COMMENT = 0xFFFF;
+
+    private static class Entry {
+        private int method;
+        private int compressedSize;
+        private int size;
+        private int localHeaderOffset;
+    }
+
+    /**
+     * The mapping of the jar and its indexed central directory.
+     */
+    private static final class Contents {
+        private Path file;
+        // Held as a ByteBuffer, MappedByteBuffer has covariant overrides
+        // since JDK 13 which do not exist on older runtimes
+        private ByteBuffer mapping;
+        // Fully qualified class name -> entry
+        private Map<String, Entry> entries = new HashMap<>();
+
+        private Contents(Path file, boolean mapped) throws IOException {
+            this.file = file;
+            try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                if (channel.size() > Integer.MAX_VALUE) {
+                    throw new ZipException("Jar file is too large to be mapped: " + file);
+                }
+                if (mapped) {
+                    mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                } else {
+                    mapping = ByteBuffer.wrap(Files.readAllBytes(file));
+                }
+            }
+            mapping.order(ByteOrder.LITTLE_ENDIAN);
+            readCentralDirectory();
+        }
+
+        private static long unsigned(int value) {
+            return Integer.toUnsignedLong(value);
+        }
+
+        private int findEnd() throws ZipException {
+            int lowest = Math.max(0, mapping.capacity() - END_SIZE - MAX_COMMENT);
+            for (int position = mapping.capacity() - END_SIZE; position >= lowest; --position) {
+                if (mapping.getInt(position) == END_HEADER) {
+                    return position;
+                }
+            }
+            throw new ZipException("End of central directory not found: " + file);
+        }
+
+        private int checkedOffset(long value) throws ZipException {
+            return checkedRange(value, 0);
+        }
+
+        /**
+         * @param offset The offset of a field or of a block of data.
+         * @param length The length of the field or of the data.
+         * @return The offset if the whole range lies within the jar.
+         * @throws ZipException If the range exceeds the jar.
+         */
+        private int checkedRange(long offset, long length) throws ZipException {
+            if (offset < 0 || length < 0 || offset + length > mapping.capacity()) {
+                throw new ZipException("Invalid offset in central directory: " + file);
+            }
+            return (int) offset;
+        }
+
+        private long readZip64(int field, int fieldEnd) throws ZipException {
+            if (field + 8 > fieldEnd) {
+                throw new ZipException("Invalid zip64 extra field: " + file);
+            }
+            return mapping.getLong(field);
+        }
+
+        private void readCentralDirectory() throws ZipException {
+            int end = findEnd();
+            long count = Short.toUnsignedInt(mapping.getShort(end + 10));
+            long offset = unsigned(mapping.getInt(end + 16));
+
+            int locator = end - 20;
+            if (locator >= 0 && mapping.getInt(locator) == ZIP64_END_LOCATOR) {
+                int zip64End = checkedRange(mapping.getLong(locator + 8), 56);
+                if (mapping.getInt(zip64End) == ZIP64_END_HEADER) {
+                    count = mapping.getLong(zip64End + 32);
+                    offset = mapping.getLong(zip64End + 48);
+                }
+            }
+
+            int position = checkedOffset(offset);
+            for (long i = 0; i != count; ++i) {
+                checkedRange(position, 46);
+                if (mapping.getInt(position) != CENTRAL_HEADER) {
+                    throw new ZipException("Invalid central directory header: " + file);
+                }
+                var entry = new Entry();
+                entry.method = Short.toUnsignedInt(mapping.getShort(position + 10));
+                long compressedSize = unsigned(mapping.getInt(position + 20));
+                long size = unsigned(mapping.getInt(position + 24));
+                int nameLength = Short.toUnsignedInt(mapping.getShort(position + 28));
+                int extraLength = Short.toUnsignedInt(mapping.getShort(position + 30));
+                int commentLength = Short.toUnsignedInt(mapping.getShort(position + 32));
+                long localHeaderOffset = unsigned(mapping.getInt(position + 42));
+                checkedRange(position + 46L, (long) nameLength + extraLength + commentLength);
+
+                var nameBytes = new byte[nameLength];
+                mapping.duplicate().position(position + 46).get(nameBytes);
+                var name = new String(nameBytes, StandardCharsets.UTF_8);
+
+                // The sizes which do not fit are stored in the zip64 extra field
+                int extra = position + 46 + nameLength;
+                int extraEnd = extra + extraLength;
+                while (extra + 4 <= extraEnd) {
+                    int id = Short.toUnsignedInt(mapping.getShort(extra));
+                    int length = Short.toUnsignedInt(mapping.getShort(extra + 2));
+                    if (id == 0x0001) {
+                        int field = extra + 4;
+                        int fieldEnd = Math.min(field + length, extraEnd);
+                        if (size == 0xFFFFFFFFL) {
+                            size = readZip64(field, fieldEnd);
+                            field += 8;
+                        }
+                        if (compressedSize == 0xFFFFFFFFL) {
+                            compressedSize = readZip64(field, fieldEnd);
+                            field += 8;
+                        }
+                        if (localHeaderOffset == 0xFFFFFFFFL) {
+                            localHeaderOffset = readZip64(field, fieldEnd);
+                        }
+                    }
+                    extra += 4 + length;
+                }
+
+                entry.compressedSize = checkedOffset(compressedSize);
+                if (size < 0 || size > Integer.MAX_VALUE - 8) {
+                    throw new ZipException("Invalid size of " + name + ": " + file);
+                }
+                entry.size = (int) size;
+                entry.localHeaderOffset = checkedOffset(localHeaderOffset);
+
+                if (name.endsWith(".class") && !name.startsWith("META-INF/") && !name.contains("-")) {
+                    // Ignore module-info.class and package-info.class as the
+                    // directory listing does
+                    entries.put(name.substring(0, name.length() - 6).replace('/', '.'), entry);
+                }
+
+                position = checkedOffset(position + 46L + nameLength + extraLength + commentLength);
+            }
+        }
+
+        /**
+         * @param name The name of the class.
+         * @return The bytecode of the class, or null if the jar does not contain
+         * it.
+         */
+        private IdentifiedBytecode read(ClassIdentifier name) {
+            var entry = entries.get(name.getFullName());
+            if (entry == null) {
+                return null;
+            }
+
+            try {
+                int header = checkedRange(entry.localHeaderOffset, 30);
+                if (mapping.getInt(header) != LOCAL_HEADER) {
+                    throw new ZipException("Invalid local header of " + name.getFullName() + ": " + file);
+                }
+                int nameLength = Short.toUnsignedInt(mapping.getShort(header + 26));
+                int extraLength = Short.toUnsignedInt(mapping.getShort(header + 28));
+                int data = checkedRange(header + 30L + nameLength + extraLength, entry.compressedSize);
+
+                // Each read uses its own view of the shared mapping
+                var content = mapping.duplicate().position(data).limit(data + entry.compressedSize).slice();
+
+                if (entry.method == STORED) {
+                    return new IdentifiedBytecode(name, content);
+                } else if (entry.method == DEFLATED) {
+                    var inflater = new Inflater(true);
+                    try {
+                        inflater.setInput(content);
+                        var result = new byte[entry.size];
+                        int inflated = 0;
+                        while (inflated != result.length) {
+                            int length = inflater.inflate(result, inflated, result.length - inflated);
+                            if (length == 0 && (inflater.finished() || inflater.needsInput())) {
+                                throw new ZipException("Truncated entry " + name.getFullName() + ": " + file);
+                            }
+                            inflated += length;
+                        }
+                        return new IdentifiedBytecode(name, result);
+                    } finally {
+                        inflater.end();
+                    }
+                } else {
+                    throw new ZipException("Unsupported compression method " + entry.method
+                            + " of " + name.getFullName() + ": " + file);
+                }
+            } catch (ZipException ex) {
+                throw new UncheckedIOException(ex);
+            } catch (DataFormatException ex) {
+                throw new UncheckedIOException(new ZipException("Invalid entry " + name.getFullName() + ": " + file + ": " + ex.getMessage()));
+            }
+        }
+    }
+
+    private Path file;
+    // The names known without reading the jar, null if not known
+    private Collection<String> classNames;
+    private volatile Contents contents = null;
+    // Package name -> fully qualified names of its classes, built on demand
+    private volatile Map<String, List<String>> packages = null;
+
+    private JarIndex(Path file, Collection<String> classNames) {
+        this.file = file;
+        this.classNames = classNames;
+    }
+
+    /**
+     * Map the jar and read its central directory.
+     * @param file The jar file.
+     * @return The index of the class files of the jar.
+     * @throws IOException If the file could not be mapped or is not a valid
+     * jar file.
+     */
+    static JarIndex open(Path file) throws IOException {
+        return open(file, true);
+    }
+
+    /**
+     * Read the central directory of the jar.
+     * @param file The jar file.
+     * @param mapped Whether the jar is memory-mapped, otherwise it is read
+     * into memory.
+     * @return The index of the class files of the jar.
+     * @throws IOException If the file could not be read or is not a valid jar
+     * file.
+     */
+    static JarIndex open(Path file, boolean mapped) throws IOException {
+        var result = new JarIndex(file, null);
+        result.contents = new Contents(file, mapped);
+        return result;
+    }
+
+    /**
+     * @param file The jar file.
+     * @param classNames The fully qualified names of the classes of the jar
+     * as previously indexed.
+     * @return The index of the jar which is mapped on the first read.
+     */
+    static JarIndex deferred(Path file, Collection<String> classNames) {
+        return new JarIndex(file, Collections.unmodifiableCollection(classNames));
+    }
+
+    private Contents getContents() {
+        var result = contents;
+        if (result == null) {
+            synchronized (this) {
+                result = contents;
+                if (result == null) {
+                    try {
+                        result = new Contents(file, true);
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                    contents = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return The jar file.
+     */
+    Path getFile() {
+        return file;
+    }
+
+    /**
+     * @return The fully qualified names of the classes of the jar.
+     */
+    Collection<String> getClassNames() {
+        var known = contents;
+        if (known == null && classNames != null) {
+            return classNames;
+        }
+        return Collections.unmodifiableSet(getContents().entries.keySet());
+    }
+
+    /**
+     * @param packageName The name of the package.
+     * @return The fully qualified names of the classes of the package,
+     * excluding its subpackages.
+     */
+    List<String> getPackageListing(String packageName) {
+        var result = packages;
+        if (result == null) {
+            var builder = new HashMap<String, List<String>>();
+            for (var className : getClassNames()) {
+                int dot = className.lastIndexOf('.');
+                builder.computeIfAbsent(dot == -1 ? "" : className.substring(0, dot), key -> new ArrayList<>()).add(className);
+            }
+            result = builder;
+            packages = result;
+        }
+        return Collections.unmodifiableList(result.getOrDefault(packageName, Collections.emptyList()));
+    }
+
+    /**
+     * @param name The name of the class.
+     * @return The bytecode of the class, or null if the jar does not contain
+     * it.
+     */
+    IdentifiedBytecode read(ClassIdentifier name) {
+        return getContents().read(name);
+    }
+}
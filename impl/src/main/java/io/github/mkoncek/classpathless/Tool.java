@@ -53,6 +53,9 @@ public class Tool {
 
         @Parameter(names = {"-d"}, description = "Output directory")
         String output = ".";
+
+        @Parameter(names = {"--classpath-index"}, description = "File caching the classpath index between runs")
+        String classpathIndex = null;
     }
 
     public static void main(String[] args) throws IOException {
@@ -67,7 +70,8 @@ public class Tool {
             return;
         }
 
-        var ccp = new ClasspathClassesProvider(arguments.classpath);
+        var ccp = new ClasspathClassesProvider(arguments.classpath,
+                arguments.classpathIndex == null ? null : Paths.get(arguments.classpathIndex));
 
         var compiler = new CompilerJavac(new CompilerJavac.Arguments().useHostSystemClasses(true));
 
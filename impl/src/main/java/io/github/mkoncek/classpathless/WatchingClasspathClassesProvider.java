@@ -0,0 +1,403 @@
+/*-
+ * Copyright (c) 2021 Marián Konček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.mkoncek.classpathless;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+
+import io.github.mkoncek.classpathless.api.ClassIdentifier;
+import io.github.mkoncek.classpathless.impl.LoggingSwitch;
+
+/**
+ * A {@link ClasspathClassesProvider} which watches its roots and keeps its
+ * index up to date. The directories of the directory roots and the parent
+ * directories of the jar roots are registered with a {@link WatchService}, the
+ * events are applied to the index by a daemon thread and the names of the
+ * changed classes are passed to the listeners. A class is changed if it was
+ * created, modified or deleted, or if a different root provides it now.
+ *
+ * @implNote Only the classes affected by an event are looked up again. A jar
+ * which is modified is read again and all its classes are reported. If events
+ * were lost, all the roots are indexed again and all the classes are
+ * reported. A root which is not a directory when the provider is created is
+ * watched as a jar. The jars are read into memory rather than mapped, because
+ * they may be rewritten in place. An event which fails to be applied is
+ * logged and the thread keeps watching.
+ */
+public final class WatchingClasspathClassesProvider extends ClasspathClassesProvider implements AutoCloseable {
+    /**
+     * Receives the names of the changed classes. The methods which invalidate
+     * caches, such as {@code CachingClassesProvider::invalidate} or
+     * {@code CompilationSession::invalidate}, can be used directly.
+     */
+    @FunctionalInterface
+    public interface ChangeListener {
+        /**
+         * Invoked by the watching thread after the index has been updated.
+         * @param names The classes which were created, modified or deleted.
+         */
+        void classesChanged(ClassIdentifier... names);
+    }
+
+    /**
+     * A root of the classpath and, for a jar, its current index.
+     */
+    private static class WatchedRoot {
+        private Path path;
+        private boolean directory;
+        // Null if the jar does not exist or could not be read
+        private JarIndex jar = null;
+
+        private WatchedRoot(Path path, boolean directory) {
+            this.path = path;
+            this.directory = directory;
+        }
+    }
+
+    private final List<WatchedRoot> roots = new ArrayList<>();
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> watchedDirectories = new ConcurrentHashMap<>();
+    private final List<ChangeListener> listeners = new CopyOnWriteArrayList<>();
+    private final Thread thread;
+    private final LoggingSwitch loggingSwitch = new LoggingSwitch();
+
+    /**
+     * @param classpath The classpath.
+     * @throws IOException If the roots could not be registered with the watch
+     * service.
+     */
+    public WatchingClasspathClassesProvider(String classpath) throws IOException {
+        super(classpath == null ? Collections.emptyList() : obtainClasspath(classpath), false);
+
+        this.classesToClassFilePaths = new ConcurrentHashMap<>();
+        this.classesToJars = new ConcurrentHashMap<>();
+
+        for (var root : this.classpath) {
+            var path = Paths.get(root);
+            roots.add(new WatchedRoot(path, Files.isDirectory(path)));
+        }
+
+        this.watchService = FileSystems.getDefault().newWatchService();
+        try {
+            // Register before indexing, so that no change is missed
+            var classNames = new LinkedHashSet<String>();
+            for (var root : roots) {
+                if (root.directory) {
+                    register(root, root.path, classNames);
+                } else {
+                    var parent = root.path.toAbsolutePath().getParent();
+                    if (parent != null && Files.isDirectory(parent)) {
+                        watchedDirectories.put(parent.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                                StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY), parent);
+                    }
+                    root.jar = openJar(root.path);
+                    if (root.jar != null) {
+                        classNames.addAll(root.jar.getClassNames());
+                    }
+                }
+            }
+            for (var className : classNames) {
+                update(className, null, new ArrayList<>());
+            }
+        } catch (IOException | RuntimeException ex) {
+            watchService.close();
+            throw ex;
+        }
+
+        this.thread = new Thread(this::run, "cplc-classpath-watcher");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * @param listener The listener which is invoked after each batch of
+     * changes.
+     */
+    public void addChangeListener(ChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeChangeListener(ChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Stop watching the roots. The index is no longer updated.
+     */
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+        try {
+            thread.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static JarIndex openJar(Path path) {
+        if (!Files.isRegularFile(path)) {
+            return null;
+        }
+        try {
+            return JarIndex.open(path, false);
+        } catch (IOException | RuntimeException ex) {
+            // The jar is still being written, a later event reads it again
+            return null;
+        }
+    }
+
+    private static String className(Path root, Path classFile) {
+        var result = new StringBuilder();
+        for (var part : root.relativize(classFile)) {
+            if (result.length() != 0) {
+                result.append('.');
+            }
+            result.append(part.toString());
+        }
+        return result.substring(0, result.length() - 6);
+    }
+
+    /**
+     * Register the directory and its subdirectories and collect the names of
+     * their classes.
+     */
+    private void register(WatchedRoot root, Path directory, Set<String> classNames) throws IOException {
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                try {
+                    watchedDirectories.put(dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY), dir);
+                } catch (NoSuchFileException | NotDirectoryException ex) {
+                    // Deleted while walking, its event follows
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (String.valueOf(file.getFileName()).endsWith(".class") && !attrs.isDirectory()) {
+                    classNames.add(className(root.path, file));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException ex) {
+                // Deleted while walking, its event follows
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * @return The class file or the jar which provides the class now, or null.
+     */
+    private Object findOwner(String className) {
+        var relative = className.replace('.', '/') + ".class";
+        for (int i = roots.size() - 1; i >= 0; --i) {
+            var root = roots.get(i);
+            if (root.directory) {
+                var classFile = root.path.resolve(relative);
+                if (Files.isRegularFile(classFile)) {
+                    return classFile;
+                }
+            } else if (root.jar != null && root.jar.getClassNames().contains(className)) {
+                return root.jar;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Look up the class again and update the maps.
+     * @param className The class affected by an event.
+     * @param modified The class file or the jar which was created or
+     * modified, null if none.
+     * @param changed The list to which the name is added if the class has
+     * changed.
+     */
+    private void update(String className, Object modified, List<ClassIdentifier> changed) {
+        Object previous = classesToClassFilePaths.get(className);
+        if (previous == null) {
+            previous = classesToJars.get(className);
+        }
+
+        var owner = findOwner(className);
+        if (owner instanceof Path) {
+            classesToClassFilePaths.put(className, (Path) owner);
+            classesToJars.remove(className);
+        } else if (owner instanceof JarIndex) {
+            classesToJars.put(className, (JarIndex) owner);
+            classesToClassFilePaths.remove(className);
+        } else {
+            classesToClassFilePaths.remove(className);
+            classesToJars.remove(className);
+        }
+
+        if (!Objects.equals(previous, owner) || (owner != null && owner.equals(modified))) {
+            changed.add(new ClassIdentifier(className));
+        }
+    }
+
+    private Set<String> knownClasses(String packagePrefix) {
+        var result = new LinkedHashSet<String>();
+        for (var className : getClassPathListing()) {
+            if (className.startsWith(packagePrefix)) {
+                result.add(className);
+            }
+        }
+        return result;
+    }
+
+    private void handle(Path directory, WatchEvent<?> event, List<ClassIdentifier> changed) throws IOException {
+        var path = directory.resolve((Path) event.context());
+        var kind = event.kind();
+
+        for (var root : roots) {
+            if (!root.directory && root.path.toAbsolutePath().equals(path.toAbsolutePath())) {
+                var previous = root.jar;
+                root.jar = kind == StandardWatchEventKinds.ENTRY_DELETE ? null : openJar(root.path);
+                var classNames = new LinkedHashSet<String>();
+                if (previous != null) {
+                    classNames.addAll(previous.getClassNames());
+                }
+                if (root.jar != null) {
+                    classNames.addAll(root.jar.getClassNames());
+                }
+                for (var className : classNames) {
+                    update(className, root.jar, changed);
+                }
+            } else if (root.directory && path.startsWith(root.path) && !path.equals(root.path)) {
+                if (String.valueOf(path.getFileName()).endsWith(".class")
+                        && !Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                    update(className(root.path, path), kind == StandardWatchEventKinds.ENTRY_DELETE ? null : path, changed);
+                } else if (kind == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                    var classNames = new LinkedHashSet<String>();
+                    register(root, path, classNames);
+                    for (var className : classNames) {
+                        update(className, root.path.resolve(className.replace('.', '/') + ".class"), changed);
+                    }
+                } else if (kind == StandardWatchEventKinds.ENTRY_DELETE) {
+                    // Possibly a directory, its classes are gone
+                    var relative = root.path.relativize(path).toString().replace(path.getFileSystem().getSeparator(), ".");
+                    for (var className : knownClasses(relative + ".")) {
+                        update(className, null, changed);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Register and index all the roots again after events were lost.
+     */
+    private void rescan(List<ClassIdentifier> changed) throws IOException {
+        var classNames = new LinkedHashSet<String>(getClassPathListing());
+        for (var root : roots) {
+            if (root.directory) {
+                if (Files.isDirectory(root.path)) {
+                    register(root, root.path, classNames);
+                }
+            } else {
+                root.jar = openJar(root.path);
+                if (root.jar != null) {
+                    classNames.addAll(root.jar.getClassNames());
+                }
+            }
+        }
+        for (var className : classNames) {
+            update(className, findOwner(className), changed);
+        }
+    }
+
+    private void notifyListeners(List<ClassIdentifier> changed) {
+        var names = changed.toArray(new ClassIdentifier[0]);
+        for (var listener : listeners) {
+            try {
+                listener.classesChanged(names);
+            } catch (RuntimeException ex) {
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, ex);
+            }
+        }
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                var key = watchService.take();
+                var changed = new ArrayList<ClassIdentifier>();
+                synchronized (this) {
+                    // Apply all the pending events at once
+                    for (; key != null; key = watchService.poll()) {
+                        var directory = watchedDirectories.get(key);
+                        for (var event : key.pollEvents()) {
+                            try {
+                                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                                    rescan(changed);
+                                } else if (directory != null) {
+                                    handle(directory, event, changed);
+                                }
+                            } catch (ClosedWatchServiceException ex) {
+                                throw ex;
+                            } catch (IOException | RuntimeException ex) {
+                                // The following events are still applied
+                                loggingSwitch.logln(Level.WARNING, "Could not apply the event {0} {1} in {2}: {3}",
+                                        event.kind(), event.context(), directory, ex);
+                            }
+                        }
+                        if (!key.reset()) {
+                            watchedDirectories.remove(key);
+                        }
+                    }
+                    invalidatePackages();
+                }
+                if (!changed.isEmpty()) {
+                    notifyListeners(changed);
+                }
+            }
+        } catch (ClosedWatchServiceException ex) {
+            return;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
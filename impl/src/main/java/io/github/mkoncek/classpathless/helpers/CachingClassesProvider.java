@@ -0,0 +1,275 @@
+/*-
+ * Copyright (c) 2021 Marián Konček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.mkoncek.classpathless.helpers;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import io.github.mkoncek.classpathless.api.ClassIdentifier;
+import io.github.mkoncek.classpathless.api.ClassesProvider;
+import io.github.mkoncek.classpathless.api.IdentifiedBytecode;
+
+/**
+ * A thread-safe provider which caches the bytecode obtained from the delegate
+ * across compilations. The cache is bounded by the total size of the cached
+ * bytecode, the classes to evict are chosen by an eviction policy. Whenever a
+ * class of the delegate is redefined, it must be invalidated.
+ */
+public class CachingClassesProvider implements ClassesProvider {
+    /**
+     * Decides which class is evicted from the cache. The methods are invoked
+     * while holding the lock of the cache.
+     */
+    public interface EvictionPolicy {
+        /**
+         * @param name The class which was added to the cache.
+         */
+        void added(ClassIdentifier name);
+
+        /**
+         * @param name The cached class which was requested.
+         */
+        void accessed(ClassIdentifier name);
+
+        /**
+         * @param name The class which was removed from the cache.
+         */
+        void removed(ClassIdentifier name);
+
+        /**
+         * @return The cached class which should be evicted next.
+         */
+        ClassIdentifier victim();
+    }
+
+    /**
+     * Evicts the least recently used class.
+     */
+    public static class LeastRecentlyUsed implements EvictionPolicy {
+        private LinkedHashSet<ClassIdentifier> order = new LinkedHashSet<>();
+
+        @Override
+        public void added(ClassIdentifier name) {
+            order.add(name);
+        }
+
+        @Override
+        public void accessed(ClassIdentifier name) {
+            order.remove(name);
+            order.add(name);
+        }
+
+        @Override
+        public void removed(ClassIdentifier name) {
+            order.remove(name);
+        }
+
+        @Override
+        public ClassIdentifier victim() {
+            return order.iterator().next();
+        }
+    }
+
+    /**
+     * Evicts the least frequently used class, among those the least recently
+     * used one.
+     */
+    public static class LeastFrequentlyUsed implements EvictionPolicy {
+        private Map<ClassIdentifier, Long> frequencies = new HashMap<>();
+        private TreeMap<Long, LinkedHashSet<ClassIdentifier>> byFrequency = new TreeMap<>();
+
+        private void put(ClassIdentifier name, long frequency) {
+            frequencies.put(name, frequency);
+            byFrequency.computeIfAbsent(frequency, key -> new LinkedHashSet<>()).add(name);
+        }
+
+        @Override
+        public void added(ClassIdentifier name) {
+            put(name, 1);
+        }
+
+        @Override
+        public void accessed(ClassIdentifier name) {
+            var frequency = frequencies.get(name);
+            removed(name);
+            put(name, frequency + 1);
+        }
+
+        @Override
+        public void removed(ClassIdentifier name) {
+            var frequency = frequencies.remove(name);
+            var names = byFrequency.get(frequency);
+            names.remove(name);
+            if (names.isEmpty()) {
+                byFrequency.remove(frequency);
+            }
+        }
+
+        @Override
+        public ClassIdentifier victim() {
+            return byFrequency.firstEntry().getValue().iterator().next();
+        }
+    }
+
+    private ClassesProvider delegate;
+    private long maxBytes;
+    @SuppressFBWarnings(value = {"EI_EXPOSE_REP2"}, justification = "policy is owned by the cache")
+    private EvictionPolicy evictionPolicy;
+
+    private Map<ClassIdentifier, IdentifiedBytecode> classes = new HashMap<>();
+    private long currentBytes = 0;
+    private long invalidations = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * @param delegate The provider of the classes.
+     * @param maxBytes The maximal total size of the cached bytecode.
+     * @param evictionPolicy The policy deciding which classes to evict, it
+     * must not be shared with any other cache.
+     */
+    public CachingClassesProvider(ClassesProvider delegate, long maxBytes, EvictionPolicy evictionPolicy) {
+        this.delegate = delegate;
+        this.maxBytes = maxBytes;
+        this.evictionPolicy = evictionPolicy;
+    }
+
+    /**
+     * Construct a cache evicting the least recently used classes.
+     * @param delegate The provider of the classes.
+     * @param maxBytes The maximal total size of the cached bytecode.
+     */
+    public CachingClassesProvider(ClassesProvider delegate, long maxBytes) {
+        this(delegate, maxBytes, new LeastRecentlyUsed());
+    }
+
+    private void remove(ClassIdentifier name) {
+        var bytecode = classes.remove(name);
+        if (bytecode != null) {
+            currentBytes -= bytecode.getSize();
+            evictionPolicy.removed(name);
+        }
+    }
+
+    private void add(IdentifiedBytecode bytecode) {
+        var size = bytecode.getSize();
+        if (size > maxBytes) {
+            return;
+        }
+        remove(bytecode.getClassIdentifier());
+        while (currentBytes + size > maxBytes) {
+            remove(evictionPolicy.victim());
+        }
+        classes.put(bytecode.getClassIdentifier(), bytecode);
+        currentBytes += size;
+        evictionPolicy.added(bytecode.getClassIdentifier());
+    }
+
+    @Override
+    public Collection<IdentifiedBytecode> getClass(ClassIdentifier... names) {
+        var result = new ArrayList<IdentifiedBytecode>();
+        var missing = new ArrayList<ClassIdentifier>();
+        long invalidationsBefore;
+
+        synchronized (this) {
+            for (var name : names) {
+                var bytecode = classes.get(name);
+                if (bytecode != null) {
+                    evictionPolicy.accessed(name);
+                    result.add(bytecode);
+                } else {
+                    missing.add(name);
+                }
+            }
+            hits += names.length - missing.size();
+            misses += missing.size();
+            invalidationsBefore = invalidations;
+        }
+
+        if (!missing.isEmpty()) {
+            var bytecodes = delegate.getClass(missing.toArray(new ClassIdentifier[0]));
+            synchronized (this) {
+                // Do not cache the bytecode which may have been redefined in
+                // the meantime
+                boolean valid = invalidations == invalidationsBefore;
+                for (var bytecode : bytecodes) {
+                    if (valid && bytecode != null) {
+                        add(bytecode);
+                    }
+                    result.add(bytecode);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    @Override
+    public List<String> getClassPathListing() {
+        return delegate.getClassPathListing();
+    }
+
+    /**
+     * Remove the classes from the cache.
+     * @param names Names of classes which were redefined or removed from the
+     * delegate.
+     */
+    public synchronized void invalidate(ClassIdentifier... names) {
+        ++invalidations;
+        for (var name : names) {
+            remove(name);
+        }
+    }
+
+    /**
+     * Remove all the classes from the cache.
+     */
+    public synchronized void invalidate() {
+        ++invalidations;
+        for (var name : new ArrayList<>(classes.keySet())) {
+            remove(name);
+        }
+    }
+
+    /**
+     * @return The total size of the cached bytecode.
+     */
+    public synchronized long getCurrentBytes() {
+        return currentBytes;
+    }
+
+    /**
+     * @return The number of requested classes which were found in the cache.
+     */
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * @return The number of requested classes which were forwarded to the
+     * delegate.
+     */
+    public synchronized long getMissCount() {
+        return misses;
+    }
+}
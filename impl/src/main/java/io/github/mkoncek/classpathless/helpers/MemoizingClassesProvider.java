@@ -0,0 +1,118 @@
+/*-
+ * Copyright (c) 2021 Marián Konček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.mkoncek.classpathless.helpers;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.github.mkoncek.classpathless.api.ClassIdentifier;
+import io.github.mkoncek.classpathless.api.ClassesProvider;
+import io.github.mkoncek.classpathless.api.IdentifiedBytecode;
+
+/**
+ * A thread-safe provider which remembers all the bytecode obtained from the
+ * delegate as well as the names of classes which the delegate did not provide.
+ * The bytecode of a class is remembered until it is released.
+ * It is meant to be used for a limited period of time during which the
+ * contents of the delegate do not change. {@link io.github.mkoncek.classpathless.impl.CompilerJavac}
+ * installs one for each compilation.
+ */
+public class MemoizingClassesProvider implements ClassesProvider {
+    private ClassesProvider delegate;
+    private Map<ClassIdentifier, IdentifiedBytecode> classes = new ConcurrentHashMap<>();
+    private Set<ClassIdentifier> absentClasses = ConcurrentHashMap.newKeySet();
+
+    private AtomicLong hits = new AtomicLong();
+    private AtomicLong misses = new AtomicLong();
+
+    public MemoizingClassesProvider(ClassesProvider delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * @return The number of requested classes which were answered without
+     * querying the delegate, including the classes known to be absent.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return The number of requested classes which were forwarded to the
+     * delegate.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Forget the bytecode of the classes so that it is not retained by this
+     * provider, a later request of the classes is forwarded to the delegate.
+     * @param names The names of the classes to forget.
+     */
+    public void release(ClassIdentifier... names) {
+        for (var name : names) {
+            classes.remove(name);
+        }
+    }
+
+    @Override
+    public Collection<IdentifiedBytecode> getClass(ClassIdentifier... names) {
+        var result = new ArrayList<IdentifiedBytecode>();
+        var missing = new ArrayList<ClassIdentifier>();
+
+        for (var name : names) {
+            var bytecode = classes.get(name);
+            if (bytecode != null) {
+                result.add(bytecode);
+            } else if (!absentClasses.contains(name)) {
+                missing.add(name);
+            }
+        }
+
+        hits.addAndGet(names.length - missing.size());
+        misses.addAndGet(missing.size());
+
+        if (!missing.isEmpty()) {
+            var found = new HashSet<ClassIdentifier>();
+            for (var bytecode : delegate.getClass(missing.toArray(new ClassIdentifier[0]))) {
+                if (bytecode != null) {
+                    classes.put(bytecode.getClassIdentifier(), bytecode);
+                    found.add(bytecode.getClassIdentifier());
+                }
+                result.add(bytecode);
+            }
+            for (var name : missing) {
+                if (!found.contains(name)) {
+                    absentClasses.add(name);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    @Override
+    public List<String> getClassPathListing() {
+        return delegate.getClassPathListing();
+    }
+}
@@ -0,0 +1,106 @@
+/*-
+ * Copyright (c) 2021 Marián Konček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.mkoncek.classpathless.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.logging.Level;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import io.github.mkoncek.classpathless.api.IdentifiedBytecode;
+import io.github.mkoncek.classpathless.api.MessagesListener;
+
+/**
+ * The outcome of a single compilation unit of a batch.
+ */
+public class BatchResult {
+    /**
+     * A message received from the compiler.
+     */
+    public static class Message {
+        private Level level;
+        private String message;
+
+        Message(Level level, String message) {
+            this.level = level;
+            this.message = message;
+        }
+
+        public Level getLevel() {
+            return level;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public String toString() {
+            return level + ": " + message;
+        }
+    }
+
+    @SuppressFBWarnings(value = {"EI_EXPOSE_REP"}, justification = "unmodifiable view")
+    private Collection<IdentifiedBytecode> bytecode = Collections.emptyList();
+    private RuntimeException exception = null;
+    private List<Message> messages = Collections.synchronizedList(new ArrayList<>());
+
+    BatchResult() {
+    }
+
+    MessagesListener getMessagesListener() {
+        return (level, message) -> messages.add(new Message(level, message));
+    }
+
+    void setBytecode(Collection<IdentifiedBytecode> bytecode) {
+        this.bytecode = Collections.unmodifiableCollection(bytecode);
+    }
+
+    void setException(RuntimeException exception) {
+        this.exception = exception;
+    }
+
+    /**
+     * @return Whether or not the compilation of this unit succeeded.
+     */
+    public boolean isSuccessful() {
+        return exception == null;
+    }
+
+    /**
+     * @return Compiled bytecode of the unit, empty if the compilation failed.
+     */
+    public Collection<IdentifiedBytecode> getBytecode() {
+        return bytecode;
+    }
+
+    /**
+     * @return The exception which caused the compilation of this unit to fail.
+     */
+    public Optional<RuntimeException> getException() {
+        return Optional.ofNullable(exception);
+    }
+
+    /**
+     * @return All the diagnostic and logging messages of this unit.
+     */
+    public List<Message> getMessages() {
+        return Collections.unmodifiableList(messages);
+    }
+}
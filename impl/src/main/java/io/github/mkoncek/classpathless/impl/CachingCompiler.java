@@ -0,0 +1,465 @@
+/*-
+ * Copyright (c) 2021 Marián Konček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.mkoncek.classpathless.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.stream.Collectors;
+
+import io.github.mkoncek.classpathless.api.ClassIdentifier;
+import io.github.mkoncek.classpathless.api.ClassesProvider;
+import io.github.mkoncek.classpathless.api.ClasspathlessCompiler;
+import io.github.mkoncek.classpathless.api.IdentifiedBytecode;
+import io.github.mkoncek.classpathless.api.IdentifiedSource;
+import io.github.mkoncek.classpathless.api.MessagesListener;
+import io.github.mkoncek.classpathless.helpers.NullMessagesListener;
+
+/**
+ * A content-addressed cache of compilation results wrapped around
+ * {@link CompilerJavac}. A cache hit returns the bytecode without starting the
+ * compiler. Diagnostics of the original compilation are not replayed.
+ *
+ * @implNote Results are first looked up by the hash of the sources, the
+ * compiler options, the host JDK and the classpath listing of the provider.
+ * Each such key holds the variants of the result together with the hashes of
+ * the bytecode of every class the compiler read from the provider. A variant
+ * is only used if the provider still returns identical bytecode for all of
+ * them. The memory tier is bounded by the number of source keys and evicts the
+ * least recently used one, the disk tier stores a file per variant in a
+ * directory per source key and is never evicted.
+ * <p>
+ * The classpath listing is hashed once per provider. Whenever the listing of
+ * a provider changes, the cache must be informed by one of the invalidate
+ * methods.
+ */
+public class CachingCompiler implements ClasspathlessCompiler {
+    private static final int MAX_VARIANTS = 8;
+
+    private CompilerJavac compiler;
+    private Optional<Path> directory;
+    private Map<String, LinkedList<Entry>> memory;
+    // Provider -> hash of its classpath listing
+    private Map<ClassesProvider, String> listingDigests = new WeakHashMap<>();
+
+    private AtomicLong hits = new AtomicLong();
+    private AtomicLong misses = new AtomicLong();
+
+    /**
+     * A single variant of a cached result.
+     */
+    private static class Entry {
+        // Class name -> hash of its bytecode
+        private Map<String, byte[]> dependencies;
+        private List<IdentifiedBytecode> outputs;
+
+        private Entry(Map<String, byte[]> dependencies, List<IdentifiedBytecode> outputs) {
+            this.dependencies = dependencies;
+            this.outputs = outputs;
+        }
+    }
+
+    /**
+     * @param compiler The compiler invoked on cache misses.
+     * @param maxEntries The maximal number of source keys held in memory.
+     * @param directory The directory of the disk tier, created if it does not
+     * exist, or empty to keep the results only in memory.
+     */
+    public CachingCompiler(CompilerJavac compiler, int maxEntries, Optional<Path> directory) {
+        this.compiler = compiler;
+        this.directory = directory;
+        this.memory = new LinkedHashMap<>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, LinkedList<CachingCompiler.Entry>> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @param compiler The compiler invoked on cache misses.
+     * @param maxEntries The maximal number of source keys held in memory.
+     */
+    public CachingCompiler(CompilerJavac compiler, int maxEntries) {
+        this(compiler, maxEntries, Optional.empty());
+    }
+
+    /**
+     * @return The number of compilations served from the cache.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return The number of compilations which invoked the compiler.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Remove all the results from the memory tier.
+     */
+    public void clear() {
+        synchronized (memory) {
+            memory.clear();
+        }
+    }
+
+    /**
+     * Discard the hashes of the classpath listings of all the providers.
+     */
+    public void invalidate() {
+        synchronized (listingDigests) {
+            listingDigests.clear();
+        }
+    }
+
+    /**
+     * Discard the hashes of the classpath listings of all the providers, the
+     * classes are not tracked to the providers which list them.
+     * @param names Names of classes which were added, changed or removed
+     * from a provider.
+     */
+    public void invalidate(ClassIdentifier... names) {
+        invalidate();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private static void update(MessageDigest digest, byte[] bytes) {
+        digest.update((byte) (bytes.length >>> 24));
+        digest.update((byte) (bytes.length >>> 16));
+        digest.update((byte) (bytes.length >>> 8));
+        digest.update((byte) bytes.length);
+        digest.update(bytes);
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        update(digest, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String toHex(byte[] bytes) {
+        var result = new StringBuilder(bytes.length * 2);
+        for (var b : bytes) {
+            result.append(Character.forDigit((b >>> 4) & 0xf, 16));
+            result.append(Character.forDigit(b & 0xf, 16));
+        }
+        return result.toString();
+    }
+
+    private static byte[] hash(IdentifiedBytecode bytecode) {
+        var digest = newDigest();
+        digest.update(bytecode.getBuffer());
+        return digest.digest();
+    }
+
+    private String listingDigest(CompilerJavacSession session, ClassesProvider classesProvider) {
+        synchronized (listingDigests) {
+            var result = listingDigests.get(classesProvider);
+            if (result != null) {
+                return result;
+            }
+        }
+        var digest = newDigest();
+        var listing = session.getClassPathListing();
+        update(digest, Integer.toString(listing.size()));
+        for (var name : listing) {
+            update(digest, name);
+        }
+        var result = toHex(digest.digest());
+        synchronized (listingDigests) {
+            listingDigests.put(classesProvider, result);
+        }
+        return result;
+    }
+
+    private String sourceKey(CompilerJavacSession session, ClassesProvider classesProvider,
+            IdentifiedSource[] javaSourceFiles) {
+        var digest = newDigest();
+        var arguments = compiler.getArguments();
+        update(digest, Runtime.version().toString());
+        update(digest, System.getProperty("java.home"));
+        update(digest, Boolean.toString(arguments.useHostSystemClasses()));
+        update(digest, Boolean.toString(arguments.useHostJavaLangObject()));
+        update(digest, Integer.toString(arguments.compilerOptions().size()));
+        for (var option : arguments.compilerOptions()) {
+            update(digest, option);
+        }
+        update(digest, Integer.toString(javaSourceFiles.length));
+        for (var source : javaSourceFiles) {
+            update(digest, source.getClassIdentifier().getFullName());
+            update(digest, source.getFile());
+        }
+        update(digest, listingDigest(session, classesProvider));
+        return toHex(digest.digest());
+    }
+
+    private static String variantKey(String sourceKey, Map<String, byte[]> dependencies) {
+        var digest = newDigest();
+        update(digest, sourceKey);
+        for (var dependency : dependencies.entrySet()) {
+            update(digest, dependency.getKey());
+            update(digest, dependency.getValue());
+        }
+        return toHex(digest.digest());
+    }
+
+    private static boolean isUpToDate(Entry entry, ClassesProvider classesProvider) {
+        if (entry.dependencies.isEmpty()) {
+            return true;
+        }
+        var current = new HashMap<String, byte[]>();
+        for (var bytecode : classesProvider.getClass(entry.dependencies.keySet().stream()
+                .map(ClassIdentifier::new).toArray(ClassIdentifier[]::new))) {
+            if (bytecode != null) {
+                current.put(bytecode.getClassIdentifier().getFullName(), hash(bytecode));
+            }
+        }
+        for (var dependency : entry.dependencies.entrySet()) {
+            var hash = current.get(dependency.getKey());
+            if (hash == null || !Arrays.equals(hash, dependency.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void putMemory(String sourceKey, Entry entry) {
+        synchronized (memory) {
+            var variants = memory.computeIfAbsent(sourceKey, key -> new LinkedList<>());
+            variants.addFirst(entry);
+            while (variants.size() > MAX_VARIANTS) {
+                variants.removeLast();
+            }
+        }
+    }
+
+    private Optional<Entry> lookupMemory(String sourceKey, ClassesProvider classesProvider) {
+        List<Entry> variants;
+        synchronized (memory) {
+            var stored = memory.get(sourceKey);
+            if (stored == null) {
+                return Optional.empty();
+            }
+            variants = new ArrayList<>(stored);
+        }
+        for (var entry : variants) {
+            if (isUpToDate(entry, classesProvider)) {
+                return Optional.of(entry);
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * @param value The count or length read from the file.
+     * @param limit The size of the file, which bounds any valid value.
+     */
+    private static int checkedLength(int value, long limit) throws IOException {
+        if (value < 0 || value > limit) {
+            throw new IOException("Invalid length: " + value);
+        }
+        return value;
+    }
+
+    private static Entry readEntry(Path path) throws IOException {
+        long size = Files.size(path);
+        try (var is = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            var dependencies = new TreeMap<String, byte[]>();
+            for (int i = checkedLength(is.readInt(), size); i != 0; --i) {
+                var name = is.readUTF();
+                var hash = new byte[checkedLength(is.readInt(), size)];
+                is.readFully(hash);
+                dependencies.put(name, hash);
+            }
+            var outputs = new ArrayList<IdentifiedBytecode>();
+            for (int i = checkedLength(is.readInt(), size); i != 0; --i) {
+                var name = is.readUTF();
+                var bytecode = new byte[checkedLength(is.readInt(), size)];
+                is.readFully(bytecode);
+                outputs.add(new IdentifiedBytecode(new ClassIdentifier(name), bytecode));
+            }
+            if (is.read() != -1) {
+                throw new IOException("Trailing data");
+            }
+            return new Entry(dependencies, outputs);
+        }
+    }
+
+    private static void writeEntry(Path directory, String name, Entry entry) throws IOException {
+        var path = directory.resolve(name);
+        var temporary = Files.createTempFile(directory, null, ".tmp");
+        try {
+            try (var os = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                os.writeInt(entry.dependencies.size());
+                for (var dependency : entry.dependencies.entrySet()) {
+                    os.writeUTF(dependency.getKey());
+                    os.writeInt(dependency.getValue().length);
+                    os.write(dependency.getValue());
+                }
+                os.writeInt(entry.outputs.size());
+                for (var output : entry.outputs) {
+                    var file = output.getFile();
+                    os.writeUTF(output.getClassIdentifier().getFullName());
+                    os.writeInt(file.length);
+                    os.write(file);
+                }
+            }
+            Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * The disk tier is best-effort, an error while reading it is a miss.
+     */
+    private Optional<Entry> lookupDisk(String sourceKey, ClassesProvider classesProvider,
+            LoggingSwitch loggingSwitch) {
+        if (directory.isEmpty()) {
+            return Optional.empty();
+        }
+        var sourceDirectory = directory.get().resolve(sourceKey);
+        if (!Files.isDirectory(sourceDirectory)) {
+            return Optional.empty();
+        }
+        List<Path> paths;
+        try (var stream = Files.list(sourceDirectory)) {
+            paths = stream.filter(path -> !path.toString().endsWith(".tmp")).collect(Collectors.toList());
+        } catch (IOException | UncheckedIOException ex) {
+            loggingSwitch.logln(Level.WARNING, "Could not list the cache directory {0}: {1}", sourceDirectory, ex);
+            return Optional.empty();
+        }
+        for (var path : paths) {
+            Entry entry;
+            try {
+                entry = readEntry(path);
+            } catch (NoSuchFileException ex) {
+                continue;
+            } catch (IOException | RuntimeException ex) {
+                // A corrupt entry, for example after a crash, is a miss and is replaced
+                loggingSwitch.logln(Level.WARNING, "Removing invalid cache entry {0}: {1}", path, ex);
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException deleteEx) {
+                    loggingSwitch.logln(Level.WARNING, "Could not remove the cache entry {0}: {1}", path, deleteEx);
+                }
+                continue;
+            }
+            if (isUpToDate(entry, classesProvider)) {
+                putMemory(sourceKey, entry);
+                return Optional.of(entry);
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * The disk tier is best-effort, an error while writing it only leaves the
+     * result in the memory tier.
+     */
+    private void store(String sourceKey, Entry entry, LoggingSwitch loggingSwitch) {
+        putMemory(sourceKey, entry);
+        if (directory.isPresent()) {
+            var sourceDirectory = directory.get().resolve(sourceKey);
+            try {
+                Files.createDirectories(sourceDirectory);
+                writeEntry(sourceDirectory, variantKey(sourceKey, entry.dependencies), entry);
+            } catch (IOException ex) {
+                loggingSwitch.logln(Level.WARNING, "Could not store the cache entry in {0}: {1}", sourceDirectory, ex);
+            }
+        }
+    }
+
+    private static Collection<IdentifiedBytecode> copyOutputs(Entry entry) {
+        return entry.outputs.stream()
+                .map(output -> output.isBufferBacked() ? output
+                        : new IdentifiedBytecode(output.getClassIdentifier(), output.getFile().clone()))
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public Collection<IdentifiedBytecode> compileClass(
+            ClassesProvider classesProvider,
+            Optional<MessagesListener> messagesConsumer,
+            IdentifiedSource... javaSourceFiles) {
+        try (var loggingSwitch = new LoggingSwitch();
+                var session = compiler.openJavacSession(classesProvider)) {
+            loggingSwitch.setMessagesListener(messagesConsumer.orElse(NullMessagesListener.INSTANCE));
+
+            var sourceKey = sourceKey(session, classesProvider, javaSourceFiles);
+
+            var cached = lookupMemory(sourceKey, classesProvider);
+            if (cached.isEmpty()) {
+                cached = lookupDisk(sourceKey, classesProvider, loggingSwitch);
+            }
+            if (cached.isPresent()) {
+                hits.incrementAndGet();
+                loggingSwitch.logln(Level.INFO, "Using cached compilation result for key {0}", sourceKey);
+                return copyOutputs(cached.get());
+            }
+
+            misses.incrementAndGet();
+            loggingSwitch.logln(Level.INFO, "No cached compilation result for key {0}", sourceKey);
+
+            var dependencies = new TreeMap<String, byte[]>();
+            var outputs = session.compileClass(messagesConsumer, () -> false,
+                    bytecode -> dependencies.put(bytecode.getClassIdentifier().getFullName(), hash(bytecode)),
+                    javaSourceFiles);
+
+            var entry = new Entry(dependencies, new ArrayList<>(outputs));
+            store(sourceKey, entry, loggingSwitch);
+            return copyOutputs(entry);
+        } catch (RuntimeException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*-
+ * Copyright (c) 2021 Marián Konček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.mkoncek.classpathless.impl;
+
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import io.github.mkoncek.classpathless.api.IdentifiedSource;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A JFR event of a single invocation of compileClass.
+ */
+@SuppressFBWarnings(value = {"URF_UNREAD_FIELD"}, justification = "the fields are read by JFR")
+@Name("io.github.mkoncek.classpathless.Compilation")
+@Label("Compilation")
+@Category({"Classpathless Compiler"})
+@Description("A compilation of a set of sources")
+class CompilationEvent extends Event {
+    @Label("Sources")
+    String sources;
+
+    @Label("Succeeded")
+    boolean succeeded;
+
+    @Label("Provider Requests")
+    long providerRequests;
+
+    @Label("Provider Bytes")
+    @DataAmount
+    long providerBytes;
+
+    @Label("Opened Classes")
+    long openedClasses;
+
+    /**
+     * Commit the event if it is enabled.
+     */
+    void commit(IdentifiedSource[] javaSourceFiles, boolean succeeded, CompilationStatistics statistics) {
+        end();
+        if (shouldCommit()) {
+            this.sources = Stream.of(javaSourceFiles).map(source -> source.getClassIdentifier().getFullName())
+                    .collect(Collectors.joining(","));
+            this.succeeded = succeeded;
+            this.providerRequests = statistics.getProviderRequests();
+            this.providerBytes = statistics.getProviderBytes();
+            this.openedClasses = statistics.getOpenedClasses();
+            commit();
+        }
+    }
+}
@@ -0,0 +1,251 @@
+/*-
+ * Copyright (c) 2021 Marián Konček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.mkoncek.classpathless.impl;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.github.mkoncek.classpathless.api.ClassIdentifier;
+import io.github.mkoncek.classpathless.api.ClassesProvider;
+import io.github.mkoncek.classpathless.api.IdentifiedBytecode;
+
+/**
+ * The timings of the phases of a compilation and the counters of its
+ * interactions with the provider and the compiler. An instance is filled by
+ * {@link CompilerJavac#compileClass(ClassesProvider, java.util.Optional,
+ * CompilationStatistics, io.github.mkoncek.classpathless.api.IdentifiedSource...)}
+ * and may be read once the compilation has finished. If the compilation is
+ * repeated with the dependency scan, the values of both attempts are summed.
+ */
+public class CompilationStatistics {
+    private AtomicLong totalNanos = new AtomicLong();
+    private AtomicLong dependencyScanNanos = new AtomicLong();
+    private AtomicLong classPathListingNanos = new AtomicLong();
+    private AtomicLong parseNanos = new AtomicLong();
+    private AtomicLong enterNanos = new AtomicLong();
+    private AtomicLong analyzeNanos = new AtomicLong();
+    private AtomicLong generateNanos = new AtomicLong();
+    private AtomicLong outputCollectionNanos = new AtomicLong();
+
+    private AtomicLong providerRequests = new AtomicLong();
+    private AtomicLong providerClasses = new AtomicLong();
+    private AtomicLong providerBytes = new AtomicLong();
+    private AtomicLong openedClasses = new AtomicLong();
+    private AtomicLong registeredClasses = new AtomicLong();
+    private AtomicLong listInvocations = new AtomicLong();
+
+    /**
+     * A provider which counts the requests passed to the delegate.
+     */
+    private class CountingProvider implements ClassesProvider {
+        private ClassesProvider delegate;
+
+        private CountingProvider(ClassesProvider delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Collection<IdentifiedBytecode> getClass(ClassIdentifier... names) {
+            providerRequests.incrementAndGet();
+            providerClasses.addAndGet(names.length);
+            var event = new ProviderRequestEvent();
+            event.begin();
+            var result = delegate.getClass(names);
+            event.commit(names, result);
+            long bytes = 0;
+            for (var bytecode : result) {
+                if (bytecode != null) {
+                    bytes += bytecode.getSize();
+                }
+            }
+            providerBytes.addAndGet(bytes);
+            return result;
+        }
+
+        @Override
+        public List<String> getClassPathListing() {
+            return delegate.getClassPathListing();
+        }
+    }
+
+    ClassesProvider counting(ClassesProvider classesProvider) {
+        return new CountingProvider(classesProvider);
+    }
+
+    void addTotal(long nanos) {
+        totalNanos.addAndGet(nanos);
+    }
+
+    void addDependencyScan(long nanos) {
+        dependencyScanNanos.addAndGet(nanos);
+    }
+
+    void addClassPathListing(long nanos) {
+        classPathListingNanos.addAndGet(nanos);
+    }
+
+    void addParse(long nanos) {
+        parseNanos.addAndGet(nanos);
+    }
+
+    void addEnter(long nanos) {
+        enterNanos.addAndGet(nanos);
+    }
+
+    void addAnalyze(long nanos) {
+        analyzeNanos.addAndGet(nanos);
+    }
+
+    void addGenerate(long nanos) {
+        generateNanos.addAndGet(nanos);
+    }
+
+    void addOutputCollection(long nanos) {
+        outputCollectionNanos.addAndGet(nanos);
+    }
+
+    void addOpenedClass() {
+        openedClasses.incrementAndGet();
+    }
+
+    void addRegisteredClasses(long count) {
+        registeredClasses.addAndGet(count);
+    }
+
+    void addListInvocation() {
+        listInvocations.incrementAndGet();
+    }
+
+    /**
+     * @return The wall time of the whole compilation.
+     */
+    public Duration getTotalTime() {
+        return Duration.ofNanos(totalNanos.get());
+    }
+
+    /**
+     * @return The wall time of scanning the dependencies of the sources.
+     */
+    public Duration getDependencyScanTime() {
+        return Duration.ofNanos(dependencyScanNanos.get());
+    }
+
+    /**
+     * @return The wall time of obtaining the classpath listing of the
+     * provider.
+     */
+    public Duration getClassPathListingTime() {
+        return Duration.ofNanos(classPathListingNanos.get());
+    }
+
+    /**
+     * @return The wall time javac spent parsing the sources.
+     */
+    public Duration getParseTime() {
+        return Duration.ofNanos(parseNanos.get());
+    }
+
+    /**
+     * @return The wall time javac spent entering the symbols.
+     */
+    public Duration getEnterTime() {
+        return Duration.ofNanos(enterNanos.get());
+    }
+
+    /**
+     * @return The wall time javac spent attributing and analyzing the flow of
+     * the classes.
+     */
+    public Duration getAnalyzeTime() {
+        return Duration.ofNanos(analyzeNanos.get());
+    }
+
+    /**
+     * @return The wall time javac spent generating the bytecode.
+     */
+    public Duration getGenerateTime() {
+        return Duration.ofNanos(generateNanos.get());
+    }
+
+    /**
+     * @return The wall time of collecting the compiled classes.
+     */
+    public Duration getOutputCollectionTime() {
+        return Duration.ofNanos(outputCollectionNanos.get());
+    }
+
+    /**
+     * @return The number of getClass calls forwarded to the provider.
+     */
+    public long getProviderRequests() {
+        return providerRequests.get();
+    }
+
+    /**
+     * @return The number of classes requested from the provider.
+     */
+    public long getProviderClasses() {
+        return providerClasses.get();
+    }
+
+    /**
+     * @return The total size of the bytecode returned by the provider.
+     */
+    public long getProviderBytes() {
+        return providerBytes.get();
+    }
+
+    /**
+     * @return The number of classes javac actually read.
+     */
+    public long getOpenedClasses() {
+        return openedClasses.get();
+    }
+
+    /**
+     * @return The number of type names made available to javac.
+     */
+    public long getRegisteredClasses() {
+        return registeredClasses.get();
+    }
+
+    /**
+     * @return The number of package listings requested by javac.
+     */
+    public long getListInvocations() {
+        return listInvocations.get();
+    }
+
+    @Override
+    public String toString() {
+        return "total: " + getTotalTime().toMillis() + " ms"
+                + ", dependency scan: " + getDependencyScanTime().toMillis() + " ms"
+                + ", classpath listing: " + getClassPathListingTime().toMillis() + " ms"
+                + ", parse: " + getParseTime().toMillis() + " ms"
+                + ", enter: " + getEnterTime().toMillis() + " ms"
+                + ", analyze: " + getAnalyzeTime().toMillis() + " ms"
+                + ", generate: " + getGenerateTime().toMillis() + " ms"
+                + ", output collection: " + getOutputCollectionTime().toMillis() + " ms"
+                + ", provider requests: " + getProviderRequests()
+                + ", provider classes: " + getProviderClasses()
+                + ", provider bytes: " + getProviderBytes()
+                + ", opened classes: " + getOpenedClasses()
+                + ", registered classes: " + getRegisteredClasses()
+                + ", list invocations: " + getListInvocations();
+    }
+}
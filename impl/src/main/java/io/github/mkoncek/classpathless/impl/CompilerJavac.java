@@ -15,32 +15,36 @@
  */
 package io.github.mkoncek.classpathless.impl;
 
-import java.io.IOException;
-import java.io.UncheckedIOException;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.TreeSet;
-import java.util.logging.Level;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Function;
 
 import javax.tools.JavaCompiler;
-import javax.tools.JavaFileObject;
 import javax.tools.ToolProvider;
 
-import io.github.mkoncek.classpathless.api.ClassIdentifier;
+import com.sun.source.util.JavacTask;
+import com.sun.source.util.TaskListener;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import io.github.mkoncek.classpathless.api.ClassesProvider;
 import io.github.mkoncek.classpathless.api.ClasspathlessCompiler;
+import io.github.mkoncek.classpathless.api.CompilationSession;
 import io.github.mkoncek.classpathless.api.IdentifiedBytecode;
 import io.github.mkoncek.classpathless.api.IdentifiedSource;
 import io.github.mkoncek.classpathless.api.MessagesListener;
-import io.github.mkoncek.classpathless.helpers.DiagnosticToMessagesListener;
-import io.github.mkoncek.classpathless.helpers.NullMessagesListener;
-import io.github.mkoncek.classpathless.helpers.WriterToMessagesListener;
-import io.github.mkoncek.classpathless.util.BytecodeExtractorAccessor;
+import io.github.mkoncek.classpathless.api.OutputSink;
+import io.github.mkoncek.classpathless.helpers.MemoizingClassesProvider;
 
 /**
  * An implementation using javax.tools compiler API
@@ -48,10 +52,17 @@ import io.github.mkoncek.classpathless.util.BytecodeExtractorAccessor;
 public class CompilerJavac implements ClasspathlessCompiler {
     private JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
     private Arguments arguments;
+    private Executor dependencyExecutor = null;
 
-    private static ClassIdentifier getIdentifier(JavaFileObject object) {
-        // Remove the leading "/"
-        return new ClassIdentifier(object.getName().substring(1));
+    /**
+     * @param arguments The arguments of the compiler.
+     * @param dependencyExecutor The executor used to obtain and parse the
+     * bytecode of dependencies in parallel before the compilation. The
+     * providers used with this compiler must be thread-safe.
+     */
+    public CompilerJavac(Arguments arguments, Executor dependencyExecutor) {
+        this.arguments = arguments;
+        this.dependencyExecutor = dependencyExecutor;
     }
 
     public CompilerJavac(Arguments arguments) {
@@ -67,136 +78,253 @@ public class CompilerJavac implements ClasspathlessCompiler {
             ClassesProvider classesProvider,
             Optional<MessagesListener> messagesConsumer,
             IdentifiedSource... javaSourceFiles) {
-        var messagesListener = messagesConsumer.orElse(NullMessagesListener.INSTANCE);
-        var diagnosticListener = new DiagnosticToMessagesListener(messagesListener);
-        var fileManager = new InMemoryFileManager(
-                compiler.getStandardFileManager(diagnosticListener, null, StandardCharsets.UTF_8));
-
-        try (var loggingSwitch = new LoggingSwitch()) {
-            loggingSwitch.setMessagesListener(messagesListener);
-
-            loggingSwitch.logln(Level.INFO, "Starting a compilation task of sources: {0}",
-                    Stream.of(javaSourceFiles).map(jsf -> jsf.getClassIdentifier().getFullName())
-                    .collect(Collectors.toUnmodifiableList()));
-
-            var compilationUnits = Arrays.stream(javaSourceFiles)
-                    .map(source -> new InMemoryJavaSourceFileObject(source))
-                    .collect(Collectors.toList());
-
-            var availableClasses = initializePossibleDependency(classesProvider, loggingSwitch, javaSourceFiles);
-
-            loggingSwitch.logln(Level.INFO, "Found type names in the bytecode: {0}", availableClasses);
-
-            for (var additionalClass : classesProvider.getClassPathListing()) {
-                if (additionalClass.charAt(0) == '[') {
-                    loggingSwitch.logln(Level.FINE, "Ignoring array type from classpath listing: {0}", additionalClass);
-                    continue;
-                }
-                if (additionalClass.contains("/")) {
-                    loggingSwitch.logln(Level.FINE, "Ignoring lambda type from classpath listing: {0}", additionalClass);
-                    continue;
-                }
-                availableClasses.add(additionalClass);
-            }
+        try (var session = openSession(classesProvider)) {
+            return session.compileClass(messagesConsumer, javaSourceFiles);
+        }
+    }
 
-            loggingSwitch.logln(Level.INFO, "All available type names: {0}", availableClasses);
+    /**
+     * Variant of {@link #compileClass} which records the timings and counters
+     * of the compilation.
+     * @param classesProvider Provider for missing elements on the classpath.
+     * @param messagesConsumer Accepts any diagnostic or logging information
+     * from the compiler.
+     * @param statistics Accepts the timings and counters of the compilation.
+     * @param javaSourceFiles Files to compile.
+     * @return Compiled bytecode of all javaSourceFiles.
+     */
+    public Collection<IdentifiedBytecode> compileClass(
+            ClassesProvider classesProvider,
+            Optional<MessagesListener> messagesConsumer,
+            CompilationStatistics statistics,
+            IdentifiedSource... javaSourceFiles) {
+        try (var session = openJavacSession(classesProvider)) {
+            return session.compileClass(messagesConsumer, () -> false, bytecode -> { }, null, statistics, javaSourceFiles);
+        }
+    }
 
-            fileManager.setClassesProvider(classesProvider);
-            fileManager.setAvailableClasses(availableClasses);
-            fileManager.setLoggingSwitch(loggingSwitch);
-            fileManager.setArguments(arguments);
+    /**
+     * Variant of {@link #compileClass} which adds a listener to every
+     * compiler task.
+     * @param taskListener Creates the listener of a compiler task.
+     */
+    Collection<IdentifiedBytecode> compileClassListening(
+            ClassesProvider classesProvider,
+            Optional<MessagesListener> messagesConsumer,
+            Function<JavacTask, TaskListener> taskListener,
+            IdentifiedSource... javaSourceFiles) {
+        try (var session = openJavacSession(classesProvider)) {
+            return session.compileClass(messagesConsumer, () -> false, bytecode -> { }, null,
+                    new CompilationStatistics(), taskListener, javaSourceFiles);
+        }
+    }
 
-            if (!compiler.getTask(new WriterToMessagesListener(messagesListener), fileManager, diagnosticListener,
-                    arguments.compilerOptions(), null, compilationUnits).call()) {
-                throw new RuntimeException("Could not compile file");
-            }
+    /**
+     * {@inheritDoc}
+     * The classes are passed to the sink as soon as the compiler closes their
+     * output streams and are not retained by the compiler.
+     */
+    @Override
+    public void compileClass(
+            ClassesProvider classesProvider,
+            Optional<MessagesListener> messagesConsumer,
+            OutputSink outputSink,
+            IdentifiedSource... javaSourceFiles) {
+        try (var session = openSession(classesProvider)) {
+            session.compileClass(messagesConsumer, outputSink, javaSourceFiles);
+        }
+    }
 
-            var result = new ArrayList<IdentifiedBytecode>();
-            var classOutputs = new ArrayList<JavaFileObject>();
+    /**
+     * The executor used by asynchronous compilations which do not specify one.
+     */
+    private static class DefaultExecutor {
+        private static final Executor INSTANCE = create();
 
-            fileManager.clearAndGetOutput(classOutputs);
+        private static Executor create() {
+            try {
+                // Available since JDK 21
+                var factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                return (Executor) factory.invoke(null);
+            } catch (ReflectiveOperationException ex) {
+                return ForkJoinPool.commonPool();
+            }
+        }
+    }
 
-            for (final var classOutput : classOutputs) {
-                try (var is = classOutput.openInputStream()) {
-                    result.add(new IdentifiedBytecode(getIdentifier(classOutput), is.readAllBytes()));
-                } catch (IOException ex) {
-                    throw new UncheckedIOException(ex);
-                }
+    /**
+     * {@inheritDoc}
+     * Cancelling the returned future stops the compilation at the next
+     * compiler phase or file manager query.
+     */
+    @Override
+    public CompletableFuture<Collection<IdentifiedBytecode>> compileClassAsync(
+            ClassesProvider classesProvider,
+            Optional<MessagesListener> messagesConsumer,
+            Executor executor,
+            IdentifiedSource... javaSourceFiles) {
+        var result = new CompletableFuture<Collection<IdentifiedBytecode>>();
+        executor.execute(() -> {
+            if (result.isDone()) {
+                return;
             }
+            try (var session = openJavacSession(classesProvider)) {
+                result.complete(session.compileClass(messagesConsumer, result::isDone, javaSourceFiles));
+            } catch (Throwable ex) {
+                result.completeExceptionally(ex);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Asynchronous variant of {@link #compileClass} using virtual threads when
+     * running on JDK 21 or newer and the common pool otherwise.
+     * @see #compileClassAsync(ClassesProvider, Optional, Executor, IdentifiedSource...)
+     * @param classesProvider Provider for missing elements on the classpath.
+     * @param messagesConsumer Accepts any diagnostic or logging information
+     * from the compiler.
+     * @param javaSourceFiles Files to compile.
+     * @return A future of the compiled bytecode of all javaSourceFiles.
+     */
+    public CompletableFuture<Collection<IdentifiedBytecode>> compileClassAsync(
+            ClassesProvider classesProvider,
+            Optional<MessagesListener> messagesConsumer,
+            IdentifiedSource... javaSourceFiles) {
+        return compileClassAsync(classesProvider, messagesConsumer, DefaultExecutor.INSTANCE, javaSourceFiles);
+    }
+
+    /**
+     * {@inheritDoc}
+     * The returned session keeps the file managers and the classpath listing
+     * of the provider alive between compilations. The session is thread-safe
+     * but compilations using it are serialized.
+     */
+    @Override
+    public CompilationSession openSession(ClassesProvider classesProvider) {
+        return openJavacSession(classesProvider);
+    }
+
+    CompilerJavacSession openJavacSession(ClassesProvider classesProvider) {
+        return new CompilerJavacSession(compiler, arguments,
+                new ProviderIndex(classesProvider, dependencyExecutor), new ConcurrentHashMap<>());
+    }
+
+    Arguments getArguments() {
+        return arguments;
+    }
+
+    /**
+     * The shared state of a single batch compilation.
+     */
+    private class Batch {
+        private ProviderIndex providerIndex;
+        private Map<String, Collection<String>> hostClasses = new ConcurrentHashMap<>();
+        private Queue<CompilerJavacSession> idleSessions = new ConcurrentLinkedQueue<>();
+        private Queue<CompilerJavacSession> allSessions = new ConcurrentLinkedQueue<>();
 
-            fileManager.setClassesProvider(null);
-            fileManager.setLoggingSwitch(null);
+        private Batch(ClassesProvider classesProvider) {
+            this.providerIndex = new ProviderIndex(new MemoizingClassesProvider(classesProvider), dependencyExecutor);
+        }
 
-            for (var resultFile : result) {
-                loggingSwitch.logln(Level.INFO, "Compilation result: {0}", resultFile.getClassIdentifier().getFullName());
+        private void compile(IdentifiedSource[] unit, BatchResult result) {
+            var session = idleSessions.poll();
+            if (session == null) {
+                session = new CompilerJavacSession(compiler, arguments, providerIndex, hostClasses);
+                allSessions.add(session);
+            }
+            try {
+                result.setBytecode(session.compileClass(Optional.of(result.getMessagesListener()), unit));
+            } catch (RuntimeException ex) {
+                result.setException(ex);
+            } finally {
+                idleSessions.add(session);
             }
+        }
 
-            return result;
-        } catch (Exception ex) {
-            throw new RuntimeException(ex);
+        private void close() {
+            for (var session : allSessions) {
+                session.close();
+            }
         }
     }
 
-    private static TreeSet<String> initializePossibleDependency(ClassesProvider classesProvider,
-            LoggingSwitch loggingSwitch, IdentifiedSource[] javaSourceFiles) {
-        var availableClasses = new TreeSet<String>();
-        for (var source : javaSourceFiles) {
-            var bytecodes = classesProvider.getClass(source.getClassIdentifier());
-            if (areBytecodesValid(loggingSwitch, source, bytecodes)) {
-                for (var bytecode : bytecodes) {
-                    if (isBytecodeValid(bytecode, loggingSwitch, source)) {
-                        extractAllDependenciesCatched(classesProvider, loggingSwitch, availableClasses, source, bytecode);
-                    }
-                }
+    /**
+     * A task compiling a contiguous range of units, split in halves so that
+     * idle workers can steal the other half.
+     */
+    @SuppressFBWarnings(value = {"SE_TRANSIENT_FIELD_NOT_RESTORED"}, justification = "tasks are never serialized")
+    private static class BatchTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final transient Batch batch;
+        private final transient List<IdentifiedSource[]> units;
+        private final transient List<BatchResult> results;
+        private final int begin;
+        private final int end;
+
+        private BatchTask(Batch batch, List<IdentifiedSource[]> units, List<BatchResult> results, int begin, int end) {
+            this.batch = batch;
+            this.units = units;
+            this.results = results;
+            this.begin = begin;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - begin == 1) {
+                batch.compile(units.get(begin), results.get(begin));
+            } else {
+                int middle = (begin + end) >>> 1;
+                invokeAll(new BatchTask(batch, units, results, begin, middle),
+                        new BatchTask(batch, units, results, middle, end));
             }
         }
-        return availableClasses;
     }
 
-    private static void extractAllDependenciesCatched(ClassesProvider classesProvider, LoggingSwitch loggingSwitch,
-            TreeSet<String> availableClasses, IdentifiedSource source, IdentifiedBytecode bytecode) {
-        try {
-            availableClasses.addAll(extractAllDependencies(classesProvider, loggingSwitch, bytecode));
-        } catch (Exception ex) {
-            loggingSwitch.logln(Level.SEVERE, "An exception was thrown during the retrieval of referenced classes of bytecode '{0}' for source '{1}': '{2}'",
-                    bytecode.getClassIdentifier().getFullName(),
-                    source.getClassIdentifier().getFullName(),
-                    ex.toString());
+    /**
+     * Compile multiple independent units in parallel. The classpath listing,
+     * the bytecode obtained from the provider and the host system class names
+     * are shared by all the units. The provider must be thread-safe.
+     * @param classesProvider Provider for missing elements on the classpath.
+     * @param units Independent sets of files to compile.
+     * @param parallelism The number of worker threads.
+     * @return The results of the units in the same order as the units.
+     */
+    public List<BatchResult> compileBatch(ClassesProvider classesProvider,
+            List<IdentifiedSource[]> units, int parallelism) {
+        var results = new ArrayList<BatchResult>(units.size());
+        for (int i = 0; i != units.size(); ++i) {
+            results.add(new BatchResult());
         }
-    }
 
-    private static Collection<String> extractAllDependencies(ClassesProvider classesProvider,
-            LoggingSwitch loggingSwitch, IdentifiedBytecode bytecode) {
-        return BytecodeExtractorAccessor.extractDependenciesImpl(bytecode, classesProvider,
-                groupMember -> loggingSwitch.logln(Level.FINE, "Adding class to classpath listing (nested group): '{0}'", groupMember),
-                directlyReferenced -> loggingSwitch.logln(Level.FINE, "Adding class to classpath listing (directly referenced): '{0}'",
-                        directlyReferenced), referencedOuter -> loggingSwitch.logln(Level.FINE,
-                        "Adding class to classpath listing (outer class of directly referenced): '{0}'", referencedOuter));
-    }
-
-    private static boolean isBytecodeValid(IdentifiedBytecode bytecode,
-            LoggingSwitch loggingSwitch, IdentifiedSource source) {
-        if (bytecode == null) {
-            loggingSwitch.logln(Level.WARNING, "ClassesProvider::getClass returned list contains null object for source '{0}'",
-                    source.getClassIdentifier().getFullName());
-            return false;
-        } else if (bytecode.getFile().length < 4) {
-            // 0xCAFEBABE
-            loggingSwitch.logln(Level.SEVERE, "Ignoring invalid bytecode '{0}' for source '{1}'",
-                    bytecode.getClassIdentifier().getFullName(),
-                    source.getClassIdentifier().getFullName());
-            return false;
+        if (units.isEmpty()) {
+            return results;
         }
-        return true;
-    }
 
-    private static boolean areBytecodesValid(LoggingSwitch loggingSwitch,
-            IdentifiedSource source, Collection<IdentifiedBytecode> bytecodes) {
-        if (bytecodes == null) {
-            loggingSwitch.logln(Level.WARNING, "ClassesProvider::getClass returned null for source '{0}'",
-                    source.getClassIdentifier().getFullName());
-            return false;
+        var batch = new Batch(classesProvider);
+        var pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(new BatchTask(batch, units, results, 0, units.size()));
+        } finally {
+            pool.shutdown();
+            batch.close();
         }
-        return true;
+
+        return results;
+    }
+
+    /**
+     * Compile multiple independent units in parallel using as many worker
+     * threads as there are available processors.
+     * @see #compileBatch(ClassesProvider, List, int)
+     * @param classesProvider Provider for missing elements on the classpath.
+     * @param units Independent sets of files to compile.
+     * @return The results of the units in the same order as the units.
+     */
+    public List<BatchResult> compileBatch(ClassesProvider classesProvider,
+            List<IdentifiedSource[]> units) {
+        return compileBatch(classesProvider, units, Runtime.getRuntime().availableProcessors());
     }
 }
@@ -0,0 +1,426 @@
+/*-
+ * Copyright (c) 2021 Marián Konček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.mkoncek.classpathless.impl;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.tools.DiagnosticListener;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+
+import com.sun.source.util.JavacTask;
+import com.sun.source.util.TaskEvent;
+import com.sun.source.util.TaskListener;
+
+import io.github.mkoncek.classpathless.api.ClassIdentifier;
+import io.github.mkoncek.classpathless.api.ClassesProvider;
+import io.github.mkoncek.classpathless.api.ClasspathlessCompiler;
+import io.github.mkoncek.classpathless.api.CompilationSession;
+import io.github.mkoncek.classpathless.api.IdentifiedBytecode;
+import io.github.mkoncek.classpathless.api.IdentifiedSource;
+import io.github.mkoncek.classpathless.api.MessagesListener;
+import io.github.mkoncek.classpathless.api.OutputSink;
+import io.github.mkoncek.classpathless.helpers.DiagnosticToMessagesListener;
+import io.github.mkoncek.classpathless.helpers.MemoizingClassesProvider;
+import io.github.mkoncek.classpathless.helpers.NullMessagesListener;
+import io.github.mkoncek.classpathless.helpers.WriterToMessagesListener;
+
+/**
+ * A session of the javax.tools compiler which keeps the file managers, the
+ * host system class listing and the provider-derived type names alive between
+ * compilations.
+ */
+class CompilerJavacSession implements CompilationSession {
+    private JavaCompiler compiler;
+    private ClasspathlessCompiler.Arguments arguments;
+
+    private DiagnosticListener<JavaFileObject> diagnosticListener = new DiagnosticToMessagesListener(NullMessagesListener.INSTANCE);
+    private InMemoryFileManager fileManager;
+
+    private ProviderIndex providerIndex;
+
+    // Creates an additional listener of each compiler task, may be null
+    private Function<JavacTask, TaskListener> taskListener;
+
+    private static ClassIdentifier getIdentifier(JavaFileObject object) {
+        // Remove the leading "/"
+        return new ClassIdentifier(object.getName().substring(1));
+    }
+
+    CompilerJavacSession(JavaCompiler compiler, ClasspathlessCompiler.Arguments arguments,
+            ProviderIndex providerIndex, Map<String, Collection<String>> hostClasses) {
+        this.compiler = compiler;
+        this.arguments = arguments;
+        this.providerIndex = providerIndex;
+        // The diagnostic listener of the standard file manager is fixed at its
+        // creation, forward to the listener of the current compilation
+        DiagnosticListener<JavaFileObject> forwardingListener = diagnostic -> diagnosticListener.report(diagnostic);
+        this.fileManager = new InMemoryFileManager(
+                compiler.getStandardFileManager(forwardingListener, null, StandardCharsets.UTF_8));
+        this.fileManager.setArguments(arguments);
+        this.fileManager.setHostClasses(hostClasses);
+    }
+
+    @Override
+    public Collection<IdentifiedBytecode> compileClass(
+            Optional<MessagesListener> messagesConsumer,
+            IdentifiedSource... javaSourceFiles) {
+        return compileClass(messagesConsumer, () -> false, javaSourceFiles);
+    }
+
+    /**
+     * {@inheritDoc}
+     * The classes are passed to the sink as soon as the compiler closes their
+     * output streams and are not retained by the session. With lazy
+     * dependencies the classes are held until the lazy attempt succeeds.
+     */
+    @Override
+    public void compileClass(Optional<MessagesListener> messagesConsumer, OutputSink outputSink,
+            IdentifiedSource... javaSourceFiles) {
+        compileClass(messagesConsumer, () -> false, bytecode -> { }, outputSink, new CompilationStatistics(), javaSourceFiles);
+    }
+
+    private static void checkCancelled(BooleanSupplier cancelled) {
+        if (cancelled.getAsBoolean()) {
+            throw new CancellationException("[CPLC] The compilation was cancelled");
+        }
+    }
+
+    /**
+     * @param cancelled Polled during the compilation, once it returns true the
+     * compilation is stopped by throwing an exception.
+     */
+    Collection<IdentifiedBytecode> compileClass(
+            Optional<MessagesListener> messagesConsumer, BooleanSupplier cancelled,
+            IdentifiedSource... javaSourceFiles) {
+        return compileClass(messagesConsumer, cancelled, bytecode -> { }, javaSourceFiles);
+    }
+
+    /**
+     * @param cancelled Polled during the compilation, once it returns true the
+     * compilation is stopped by throwing an exception.
+     * @param openedClasses Accepts the bytecode of every class obtained from
+     * the provider which was read by the compiler.
+     */
+    Collection<IdentifiedBytecode> compileClass(
+            Optional<MessagesListener> messagesConsumer, BooleanSupplier cancelled,
+            Consumer<IdentifiedBytecode> openedClasses, IdentifiedSource... javaSourceFiles) {
+        return compileClass(messagesConsumer, cancelled, openedClasses, null, new CompilationStatistics(), javaSourceFiles);
+    }
+
+    /**
+     * @param cancelled Polled during the compilation, once it returns true the
+     * compilation is stopped by throwing an exception.
+     * @param openedClasses Accepts the bytecode of every class obtained from
+     * the provider which was read by the compiler.
+     * @param outputSink If not null, accepts the compiled classes as soon as
+     * they are written, the returned collection is then empty.
+     * @param statistics Accepts the timings and counters of the compilation.
+     */
+    Collection<IdentifiedBytecode> compileClass(
+            Optional<MessagesListener> messagesConsumer, BooleanSupplier cancelled,
+            Consumer<IdentifiedBytecode> openedClasses, OutputSink outputSink, CompilationStatistics statistics,
+            IdentifiedSource... javaSourceFiles) {
+        return compileClass(messagesConsumer, cancelled, openedClasses, outputSink, statistics, null, javaSourceFiles);
+    }
+
+    /**
+     * @param cancelled Polled during the compilation, once it returns true the
+     * compilation is stopped by throwing an exception.
+     * @param openedClasses Accepts the bytecode of every class obtained from
+     * the provider which was read by the compiler.
+     * @param outputSink If not null, accepts the compiled classes as soon as
+     * they are written, the returned collection is then empty.
+     * @param statistics Accepts the timings and counters of the compilation.
+     * @param taskListener If not null, creates a listener which is added to
+     * every compiler task of the compilation.
+     */
+    synchronized Collection<IdentifiedBytecode> compileClass(
+            Optional<MessagesListener> messagesConsumer, BooleanSupplier cancelled,
+            Consumer<IdentifiedBytecode> openedClasses, OutputSink outputSink, CompilationStatistics statistics,
+            Function<JavacTask, TaskListener> taskListener, IdentifiedSource... javaSourceFiles) {
+        long start = System.nanoTime();
+        var event = new CompilationEvent();
+        event.begin();
+        boolean succeeded = false;
+        fileManager.setStatistics(statistics);
+        this.taskListener = taskListener;
+        try {
+            var result = compileImpl(messagesConsumer.orElse(NullMessagesListener.INSTANCE), cancelled, openedClasses,
+                    outputSink, statistics, javaSourceFiles);
+            succeeded = true;
+            return result;
+        } finally {
+            statistics.addTotal(System.nanoTime() - start);
+            fileManager.setStatistics(new CompilationStatistics());
+            this.taskListener = null;
+            event.commit(javaSourceFiles, succeeded, statistics);
+        }
+    }
+
+    private Collection<IdentifiedBytecode> compileImpl(MessagesListener messagesListener, BooleanSupplier cancelled,
+            Consumer<IdentifiedBytecode> openedClasses, OutputSink outputSink, CompilationStatistics statistics,
+            IdentifiedSource... javaSourceFiles) {
+
+        try (var loggingSwitch = new LoggingSwitch()) {
+            loggingSwitch.setMessagesListener(messagesListener);
+
+            loggingSwitch.logln(Level.INFO, () -> "Starting a compilation task of sources: "
+                    + Stream.of(javaSourceFiles).map(jsf -> jsf.getClassIdentifier().getFullName())
+                    .collect(Collectors.toUnmodifiableList()));
+
+            // The bytecode obtained by the dependency scan is likely to be
+            // read by the compiler as well
+            var memoizingProvider = new MemoizingClassesProvider(statistics.counting(providerIndex.getClassesProvider()));
+
+            if (arguments.lazyDependencies()) {
+                // The diagnostics of a failed attempt are not reported,
+                // the compilation is repeated with the dependency scan
+                var deferred = new ArrayList<Runnable>();
+                MessagesListener deferringListener = (level, message) -> deferred.add(() -> messagesListener.addMessage(level, message));
+                // Neither are the classes, which would be passed to the sink twice
+                var buffered = new ArrayList<IdentifiedBytecode>();
+
+                var result = compile(deferringListener, loggingSwitch, memoizingProvider, cancelled, openedClasses,
+                        outputSink == null ? null : buffered::add, statistics, javaSourceFiles, new TreeSet<>(), true);
+                if (result.isPresent()) {
+                    deferred.forEach(Runnable::run);
+                    if (outputSink != null) {
+                        buffered.forEach(outputSink::accept);
+                    }
+                    logMemoizedLookups(loggingSwitch, memoizingProvider);
+                    return result.get();
+                }
+
+                loggingSwitch.logln(Level.INFO, "Compilation with lazily listed packages failed, scanning the dependencies");
+            }
+
+            long scanStart = System.nanoTime();
+            var availableClasses = providerIndex.getDependencies(loggingSwitch, memoizingProvider, javaSourceFiles);
+            statistics.addDependencyScan(System.nanoTime() - scanStart);
+
+            loggingSwitch.logln(Level.INFO, "Found type names in the bytecode: {0}", availableClasses);
+
+            long listingStart = System.nanoTime();
+            availableClasses.addAll(providerIndex.getClassPathListing(loggingSwitch));
+            statistics.addClassPathListing(System.nanoTime() - listingStart);
+
+            loggingSwitch.logln(Level.INFO, "All available type names: {0}", availableClasses);
+
+            var result = compile(messagesListener, loggingSwitch, memoizingProvider, cancelled, openedClasses,
+                    outputSink, statistics, javaSourceFiles, availableClasses, false);
+            logMemoizedLookups(loggingSwitch, memoizingProvider);
+            return result.orElseThrow(() -> new RuntimeException("Could not compile file"));
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private static void logMemoizedLookups(LoggingSwitch loggingSwitch, MemoizingClassesProvider memoizingProvider) {
+        loggingSwitch.logln(Level.INFO, "Lookups of classes from the provider: {0} memoized, {1} forwarded",
+                memoizingProvider.getHitCount(), memoizingProvider.getMissCount());
+    }
+
+    /**
+     * @param classesProvider The provider used by the compiler.
+     * @param outputSink If not null, accepts the compiled classes instead of
+     * the result.
+     * @param lazy Whether the contents of packages should be added to the
+     * available classes once the compiler lists them.
+     * @return The compiled bytecode or empty if the compilation failed.
+     */
+    private Optional<Collection<IdentifiedBytecode>> compile(MessagesListener messagesListener,
+            LoggingSwitch loggingSwitch, MemoizingClassesProvider classesProvider, BooleanSupplier cancelled, Consumer<IdentifiedBytecode> openedClasses,
+            OutputSink outputSink, CompilationStatistics statistics, IdentifiedSource[] javaSourceFiles, SortedSet<String> availableClasses, boolean lazy) {
+        checkCancelled(cancelled);
+
+        diagnosticListener = new DiagnosticToMessagesListener(messagesListener);
+
+        var compilationUnits = Arrays.stream(javaSourceFiles)
+                .map(source -> new InMemoryJavaSourceFileObject(source))
+                .collect(Collectors.toList());
+
+        fileManager.setClassesProvider(new ClassesProvider() {
+            @Override
+            public Collection<IdentifiedBytecode> getClass(ClassIdentifier... names) {
+                var result = classesProvider.getClass(names);
+                for (var bytecode : result) {
+                    if (bytecode != null) {
+                        statistics.addOpenedClass();
+                        openedClasses.accept(bytecode);
+                    }
+                }
+                // The class file object holds the bytecode until the compiler
+                // has read it, the memoized copy would keep it alive until
+                // the end of the compilation
+                classesProvider.release(names);
+                return result;
+            }
+
+            @Override
+            public List<String> getClassPathListing() {
+                return classesProvider.getClassPathListing();
+            }
+        });
+        fileManager.setAvailableClasses(availableClasses);
+        if (outputSink != null) {
+            fileManager.setOutputSink(bytecode -> {
+                loggingSwitch.logln(Level.INFO, "Compilation result: {0}", bytecode.getClassIdentifier().getFullName());
+                outputSink.accept(bytecode);
+            });
+        }
+        fileManager.setLazyIndex(lazy ? providerIndex : null);
+        fileManager.setLoggingSwitch(loggingSwitch);
+        fileManager.setCancelled(cancelled);
+
+        try {
+            var classOutputs = new ArrayList<JavaFileObject>();
+            boolean success;
+
+            try {
+                var task = (JavacTask) compiler.getTask(new WriterToMessagesListener(messagesListener), fileManager, diagnosticListener,
+                        arguments.compilerOptions(), null, compilationUnits);
+                task.addTaskListener(new TaskListener() {
+                    // The compiler may start a phase for all the compilation
+                    // units before finishing any of them, the time is measured
+                    // from the first start until all of them are finished
+                    private Map<TaskEvent.Kind, Integer> running = new EnumMap<>(TaskEvent.Kind.class);
+                    private Map<TaskEvent.Kind, Long> started = new EnumMap<>(TaskEvent.Kind.class);
+
+                    @Override
+                    public void started(TaskEvent event) {
+                        checkCancelled(cancelled);
+                        if (running.merge(event.getKind(), 1, Integer::sum) == 1) {
+                            started.put(event.getKind(), System.nanoTime());
+                        }
+                    }
+
+                    @Override
+                    public void finished(TaskEvent event) {
+                        var count = running.get(event.getKind());
+                        if (count != null) {
+                            if (count == 1) {
+                                running.remove(event.getKind());
+                                addPhaseTime(statistics, event.getKind(), System.nanoTime() - started.remove(event.getKind()));
+                            } else {
+                                running.put(event.getKind(), count - 1);
+                            }
+                        }
+                        checkCancelled(cancelled);
+                    }
+                });
+                if (taskListener != null) {
+                    task.addTaskListener(taskListener.apply(task));
+                }
+                success = task.call();
+            } finally {
+                fileManager.clearAndGetOutput(classOutputs);
+            }
+
+            long collectionStart = System.nanoTime();
+
+            if (!success) {
+                return Optional.empty();
+            }
+
+            var result = new ArrayList<IdentifiedBytecode>();
+
+            for (final var classOutput : classOutputs) {
+                try (var is = classOutput.openInputStream()) {
+                    result.add(new IdentifiedBytecode(getIdentifier(classOutput), is.readAllBytes()));
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }
+
+            for (var resultFile : result) {
+                loggingSwitch.logln(Level.INFO, "Compilation result: {0}", resultFile.getClassIdentifier().getFullName());
+            }
+            statistics.addOutputCollection(System.nanoTime() - collectionStart);
+
+            return Optional.of(result);
+        } finally {
+            fileManager.setClassesProvider(null);
+            fileManager.setOutputSink(null);
+            fileManager.setLazyIndex(null);
+            fileManager.setLoggingSwitch(new LoggingSwitch.Null());
+            fileManager.setCancelled(() -> false);
+        }
+    }
+
+    private static void addPhaseTime(CompilationStatistics statistics, TaskEvent.Kind kind, long nanos) {
+        switch (kind) {
+        case PARSE:
+            statistics.addParse(nanos);
+            break;
+        case ENTER:
+            statistics.addEnter(nanos);
+            break;
+        case ANALYZE:
+            statistics.addAnalyze(nanos);
+            break;
+        case GENERATE:
+            statistics.addGenerate(nanos);
+            break;
+        default:
+            break;
+        }
+    }
+
+    /**
+     * @return The filtered classpath listing of the provider of this session.
+     */
+    SortedSet<String> getClassPathListing() {
+        return providerIndex.getClassPathListing(new LoggingSwitch.Null());
+    }
+
+    @Override
+    public void invalidate() {
+        providerIndex.invalidate();
+    }
+
+    @Override
+    public void invalidate(ClassIdentifier... names) {
+        providerIndex.invalidate(Stream.of(names).map(ClassIdentifier::getFullName).collect(Collectors.toSet()));
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            fileManager.close();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+}
@@ -0,0 +1,241 @@
+/*-
+ * Copyright (c) 2021 Marián Konček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.mkoncek.classpathless.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.stream.Collectors;
+
+/**
+ * A process-wide snapshot of the names of the host system classes, keyed by
+ * the JDK and the module. The classes of a module are listed from the jrt
+ * file system once and shared by all the compilations. A snapshot may be
+ * saved to a file and loaded at startup by a later process running the same
+ * JDK.
+ */
+public class HostClassIndex {
+    private static final Map<String, HostClassIndex> INSTANCES = new ConcurrentHashMap<>();
+
+    private String jdk;
+    private Map<String, ModuleClasses> modules = new ConcurrentHashMap<>();
+
+    /**
+     * The class names of a single module.
+     */
+    private static class ModuleClasses {
+        // Package name -> fully qualified names of its classes
+        private TreeMap<String, List<String>> packages;
+        private Map<String, Collection<String>> recursiveListings = new ConcurrentHashMap<>();
+
+        private ModuleClasses(Collection<String> classNames) {
+            var builder = new TreeMap<String, List<String>>();
+            for (var className : classNames) {
+                int dot = className.lastIndexOf('.');
+                var packageName = dot == -1 ? "" : className.substring(0, dot);
+                builder.computeIfAbsent(packageName, key -> new ArrayList<>()).add(className);
+            }
+            for (var entry : builder.entrySet()) {
+                Collections.sort(entry.getValue());
+                entry.setValue(Collections.unmodifiableList(entry.getValue()));
+            }
+            this.packages = builder;
+        }
+
+        private Collection<String> list(String packageName, boolean recurse) {
+            if (!recurse) {
+                return packages.getOrDefault(packageName, Collections.emptyList());
+            }
+            var result = recursiveListings.get(packageName);
+            if (result == null) {
+                var listing = new ArrayList<String>(packages.getOrDefault(packageName, Collections.emptyList()));
+                var subpackages = packageName.isEmpty() ? packages.tailMap("", false)
+                        // All the names with the prefix "packageName." precede "packageName/"
+                        : packages.subMap(packageName + ".", packageName + "/");
+                for (var classNames : subpackages.values()) {
+                    listing.addAll(classNames);
+                }
+                result = Collections.unmodifiableList(listing);
+                recursiveListings.put(packageName, result);
+            }
+            return result;
+        }
+
+        private int size() {
+            return packages.values().stream().mapToInt(List::size).sum();
+        }
+    }
+
+    private HostClassIndex(String jdk) {
+        this.jdk = jdk;
+    }
+
+    private static String currentJdk() {
+        return Runtime.version().toString() + ":" + System.getProperty("java.home");
+    }
+
+    /**
+     * @return The snapshot of the running JDK.
+     */
+    public static HostClassIndex getInstance() {
+        return INSTANCES.computeIfAbsent(currentJdk(), HostClassIndex::new);
+    }
+
+    private static FileSystem jrt() {
+        return FileSystems.getFileSystem(URI.create("jrt:/"));
+    }
+
+    private static ModuleClasses listModule(String module) {
+        var root = jrt().getPath("/modules", module);
+        if (!Files.isDirectory(root)) {
+            return new ModuleClasses(Collections.emptyList());
+        }
+        try (var stream = Files.walk(root)) {
+            return new ModuleClasses(stream
+                    .map(path -> root.relativize(path).toString())
+                    // Ignore strange non-class files, module-info.class and
+                    // package-info.class
+                    .filter(name -> name.endsWith(".class") && !name.contains("-"))
+                    .map(name -> name.substring(0, name.length() - 6).replace('/', '.'))
+                    .collect(Collectors.toList()));
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private ModuleClasses getModule(String module) {
+        var result = modules.get(module);
+        if (result == null) {
+            var listed = listModule(module);
+            result = modules.putIfAbsent(module, listed);
+            if (result == null) {
+                result = listed;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return The fully qualified names of the classes of the package in the
+     * module, sorted if not recursive.
+     */
+    Collection<String> list(String module, String packageName, boolean recurse) {
+        return getModule(module).list(packageName, recurse);
+    }
+
+    /**
+     * List all the modules of the JDK which were not listed yet.
+     * @param executor The executor used to list the modules in parallel.
+     * @return this.
+     */
+    public HostClassIndex build(Executor executor) {
+        if (!jdk.equals(currentJdk())) {
+            throw new IllegalStateException("[CPLC] The snapshot does not belong to the running JDK: " + jdk);
+        }
+        List<String> names;
+        try (var stream = Files.list(jrt().getPath("/modules"))) {
+            names = stream.map(path -> path.toString().substring("/modules/".length())).collect(Collectors.toList());
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        CompletableFuture.allOf(names.stream()
+                .filter(module -> !modules.containsKey(module))
+                .map(module -> CompletableFuture.runAsync(() -> getModule(module), executor))
+                .toArray(CompletableFuture[]::new)).join();
+        return this;
+    }
+
+    /**
+     * @return The number of class names of all the listed modules.
+     */
+    public int size() {
+        return modules.values().stream().mapToInt(ModuleClasses::size).sum();
+    }
+
+    /**
+     * Write the listed modules to a file.
+     * @param file The file to write, it is replaced atomically.
+     * @throws IOException If the file could not be written.
+     */
+    public void save(Path file) throws IOException {
+        var temporary = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (var os = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                os.writeUTF(jdk);
+                var snapshot = new TreeMap<>(modules);
+                os.writeInt(snapshot.size());
+                for (var module : snapshot.entrySet()) {
+                    os.writeUTF(module.getKey());
+                    os.writeInt(module.getValue().size());
+                    for (var classNames : module.getValue().packages.values()) {
+                        for (var className : classNames) {
+                            os.writeUTF(className);
+                        }
+                    }
+                }
+            }
+            Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Add the modules saved in a file to the snapshot of the running JDK.
+     * @param file The file written by {@link #save}.
+     * @return Whether the file was written by the same JDK and was loaded.
+     * @throws IOException If the file could not be read.
+     */
+    public static boolean load(Path file) throws IOException {
+        try (var is = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (!is.readUTF().equals(currentJdk())) {
+                return false;
+            }
+            var loaded = new TreeMap<String, ModuleClasses>();
+            for (int i = is.readInt(); i != 0; --i) {
+                var module = is.readUTF();
+                var classNames = new ArrayList<String>();
+                for (int j = is.readInt(); j != 0; --j) {
+                    classNames.add(is.readUTF());
+                }
+                loaded.put(module, new ModuleClasses(classNames));
+            }
+            var instance = getInstance();
+            for (var module : loaded.entrySet()) {
+                instance.modules.putIfAbsent(module.getKey(), module.getValue());
+            }
+            return true;
+        }
+    }
+}
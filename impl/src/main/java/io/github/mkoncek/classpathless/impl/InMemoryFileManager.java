@@ -21,9 +21,12 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.ServiceLoader;
 import java.util.Set;
-import java.util.SortedSet;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
 import java.util.logging.Level;
 
 import javax.tools.FileObject;
@@ -34,6 +37,7 @@ import javax.tools.StandardLocation;
 
 import io.github.mkoncek.classpathless.api.ClassesProvider;
 import io.github.mkoncek.classpathless.api.ClasspathlessCompiler;
+import io.github.mkoncek.classpathless.api.OutputSink;
 
 /**
  * @author Marián Konček
@@ -43,13 +47,24 @@ public class InMemoryFileManager implements JavaFileManager {
     private ClasspathlessCompiler.Arguments arguments = null;
 
     private ClassesProvider classesProvider = null;
-    private SortedSet<String> availableClasses = null;
+    private PackageIndex availableClasses = new PackageIndex();
+    private ProviderIndex lazyIndex = null;
     private LoggingSwitch loggingSwitch = new LoggingSwitch.Null();
+    private BooleanSupplier cancelled = () -> false;
+    private CompilationStatistics statistics = new CompilationStatistics();
 
     private ArrayList<InMemoryJavaClassFileObject> classOutputs = new ArrayList<>();
+    private OutputSink outputSink = null;
 
     private JavaFileObject hostJavaLangObjectFileObject = null;
 
+    /**
+     * The names of host system classes keyed by location, package name and
+     * recursion. These do not depend on the provider and therefore survive
+     * across compilations and may be shared by multiple file managers.
+     */
+    private Map<String, Collection<String>> hostClasses = new ConcurrentHashMap<>();
+
     // The Location name for system classes in Java >= 9
     private static final String HOST_SYSTEM_MODULES = "SYSTEM_MODULES[java.base]";
 
@@ -62,12 +77,51 @@ public class InMemoryFileManager implements JavaFileManager {
         this.loggingSwitch = loggingSwitch;
     }
 
+    void setCancelled(BooleanSupplier cancelled) {
+        this.cancelled = cancelled;
+    }
+
+    void setStatistics(CompilationStatistics statistics) {
+        this.statistics = statistics;
+    }
+
     void setClassesProvider(ClassesProvider classesProvider) {
         this.classesProvider = classesProvider;
     }
 
-    void setAvailableClasses(SortedSet<String> availableClasses) {
-        this.availableClasses = availableClasses;
+    void setAvailableClasses(Collection<String> availableClasses) {
+        this.availableClasses.clear();
+        for (var className : availableClasses) {
+            register(className);
+        }
+    }
+
+    private boolean register(String className) {
+        if (availableClasses.add(className)) {
+            statistics.addRegisteredClasses(1);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param lazyIndex If not null, the contents of each package listed by
+     * the compiler are added to the available classes from this index.
+     */
+    void setLazyIndex(ProviderIndex lazyIndex) {
+        this.lazyIndex = lazyIndex;
+    }
+
+    /**
+     * @param outputSink If not null, the class outputs are passed to it as
+     * soon as they are written instead of being collected.
+     */
+    void setOutputSink(OutputSink outputSink) {
+        this.outputSink = outputSink;
+    }
+
+    void setHostClasses(Map<String, Collection<String>> hostClasses) {
+        this.hostClasses = hostClasses;
     }
 
     void setArguments(ClasspathlessCompiler.Arguments arguments) {
@@ -225,7 +279,11 @@ public class InMemoryFileManager implements JavaFileManager {
             // happen by the caller
             var result = new InMemoryJavaClassFileObject(className, null, loggingSwitch);
             loggingSwitch.trace(result);
-            classOutputs.add(result);
+            if (outputSink != null) {
+                result.setOutputSink(outputSink);
+            } else {
+                classOutputs.add(result);
+            }
             return result;
         } else {
             var result = delegate.getJavaFileForOutput(location, className, kind, sibling);
@@ -264,40 +322,24 @@ public class InMemoryFileManager implements JavaFileManager {
      */
     private Collection<JavaFileObject> loadClasses(
             String packageName, boolean recurse) throws IOException {
-        var result = new ArrayList<JavaFileObject>();
-
-        for (var availableClassName : availableClasses.tailSet(packageName)) {
-            if (!availableClassName.startsWith(packageName)) {
-                break;
-            }
-
-            if (packageName.isEmpty()) {
-                if (availableClassName.contains(".") && !recurse) {
-                    loggingSwitch.logln(Level.FINE, "Skipping over class from a package from ClassProvider: \"{0}\"", availableClassName);
-                    continue;
-                }
-            } else {
-                if (availableClassName.length() <= packageName.length() + 1) {
-                    loggingSwitch.logln(Level.FINE, "Skipping over class from a package from ClassProvider: \"{0}\"", availableClassName);
-                    continue;
-                }
-                if (availableClassName.charAt(packageName.length()) != '.' ||
-                        (availableClassName.substring(packageName.length() + 1).contains(".") && !recurse)) {
-                    loggingSwitch.logln(Level.FINE, "Skipping over class from a subpackage from ClassProvider: \"{0}\"", availableClassName);
-                    continue;
+        if (lazyIndex != null) {
+            var listing = recurse ? lazyIndex.getClassPathListing(loggingSwitch) : lazyIndex.getPackageListing(loggingSwitch, packageName);
+            for (var className : listing) {
+                if (register(className)) {
+                    loggingSwitch.logln(Level.FINE, "Adding class to classpath listing (lazily listed): \"{0}\"", className);
                 }
             }
+        }
 
-            if (availableClassName.equals("java.lang.Object") && hostJavaLangObjectFileObject != null) {
+        return availableClasses.list(packageName, recurse, className -> {
+            if (className.equals("java.lang.Object") && hostJavaLangObjectFileObject != null) {
                 loggingSwitch.logln(Level.FINE, "Loading host file object \"java.lang.Object\": {0}", hostJavaLangObjectFileObject);
-                result.add(hostJavaLangObjectFileObject);
+                return hostJavaLangObjectFileObject;
             } else {
-                loggingSwitch.logln(Level.FINE, "Loading class from ClassProvider: \"{0}\"", availableClassName);
-                result.add(new InMemoryJavaClassFileObject(availableClassName, classesProvider, loggingSwitch));
+                loggingSwitch.logln(Level.FINE, "Loading class from ClassProvider: \"{0}\"", className);
+                return new InMemoryJavaClassFileObject(className, classesProvider, loggingSwitch);
             }
-        }
-
-        return result;
+        });
     }
 
     /**
@@ -315,9 +357,6 @@ public class InMemoryFileManager implements JavaFileManager {
                 int begin = name.indexOf('/') + 1;
                 name = name.substring(begin).replace('/', '.');
 
-                if (name.equals("java.lang.Object") && arguments.useHostJavaLangObject()) {
-                    hostJavaLangObjectFileObject = jfobject;
-                }
                 result.add(name);
             } else {
                 loggingSwitch.logln(Level.FINE, "Skipping over file object: \"{0}\"", name);
@@ -326,6 +365,48 @@ public class InMemoryFileManager implements JavaFileManager {
         return result;
     }
 
+    /**
+     * @return Whether the system modules seen by the compiler are those of the
+     * running JDK, so that their class names may be taken from
+     * {@link HostClassIndex}.
+     */
+    private boolean usesRunningJdkModules() {
+        for (var option : arguments.compilerOptions()) {
+            if (option.startsWith("--release") || option.startsWith("--system")
+                    || option.startsWith("--upgrade-module-path") || option.startsWith("--patch-module")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Collection<String> hostClassesNames(Location location, String packageName,
+            Set<Kind> kinds, boolean recurse) throws IOException {
+        if (!kinds.contains(Kind.CLASS)) {
+            return Collections.emptyList();
+        }
+        Collection<String> result;
+        if (location.getName().equals(HOST_SYSTEM_MODULES) && usesRunningJdkModules()) {
+            result = HostClassIndex.getInstance().list("java.base", packageName, recurse);
+        } else {
+            var key = location.getName() + ":" + packageName + (recurse ? ":*" : "");
+            result = hostClasses.get(key);
+            if (result == null) {
+                result = hostClassesNames(delegate.list(location, packageName, kinds, recurse));
+                hostClasses.put(key, result);
+            }
+        }
+        // The names may have been listed by a different file manager, obtain
+        // the file object from our own delegate
+        if (hostJavaLangObjectFileObject == null && arguments.useHostJavaLangObject()
+                && result.contains("java.lang.Object")) {
+            hostJavaLangObjectFileObject = delegate.getJavaFileForInput(location, "java.lang.Object", Kind.CLASS);
+            // The listings may contain java.lang.Object from the provider
+            availableClasses.clearListings();
+        }
+        return result;
+    }
+
     private Iterable<JavaFileObject> listImpl(Location location, String packageName,
             Set<Kind> kinds, boolean recurse) throws IOException {
         if (!arguments.useHostSystemClasses()) {
@@ -333,8 +414,8 @@ public class InMemoryFileManager implements JavaFileManager {
                 // Add all the host visible names to our set of available classes
                 // but do not return it, the compiler will later ask for the same
                 // package name with the location CLASS_PATH, then we return all.
-                for (String name : hostClassesNames(delegate.list(location, packageName, kinds, recurse))) {
-                    if (availableClasses.add(name)) {
+                for (String name : hostClassesNames(location, packageName, kinds, recurse)) {
+                    if (register(name)) {
                         loggingSwitch.logln(Level.FINE, "Loading system class from ClassProvider: \"{0}\"", name);
                     }
                 }
@@ -343,17 +424,17 @@ public class InMemoryFileManager implements JavaFileManager {
                 // In this case we need to return the whole set of classes
                 // because the compiler will not ask for host classes with
                 // Location == CLASS_PATH, due to different nature of modules
-                for (String name : hostClassesNames(delegate.list(location, packageName, kinds, recurse))) {
-                    if (availableClasses.add(name)) {
+                for (String name : hostClassesNames(location, packageName, kinds, recurse)) {
+                    if (register(name)) {
                         loggingSwitch.logln(Level.FINE, "Loading system class from ClassProvider: \"{0}\"", name);
                     }
                 }
-                return new ArrayList<JavaFileObject>(loadClasses(packageName, recurse));
+                return loadClasses(packageName, recurse);
             }
         }
 
         if (location.equals(StandardLocation.CLASS_PATH)) {
-            return new ArrayList<JavaFileObject>(loadClasses(packageName, recurse));
+            return loadClasses(packageName, recurse);
         } else {
             return delegate.list(location, packageName, kinds, recurse);
         }
@@ -363,7 +444,14 @@ public class InMemoryFileManager implements JavaFileManager {
     public Iterable<JavaFileObject> list(Location location, String packageName,
             Set<Kind> kinds, boolean recurse) throws IOException {
         loggingSwitch.trace(this, "list", location, packageName, kinds, recurse);
+        if (cancelled.getAsBoolean()) {
+            throw new CancellationException("[CPLC] The compilation was cancelled");
+        }
+        statistics.addListInvocation();
+        var event = new ListEvent();
+        event.begin();
         var result = listImpl(location, packageName, kinds, recurse);
+        event.commit(location.getName(), packageName, recurse, result);
         loggingSwitch.trace(result);
         for (var it = result.iterator(); it.hasNext();) {
             if (it.next() == null) {
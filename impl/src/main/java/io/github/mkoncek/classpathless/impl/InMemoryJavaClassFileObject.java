@@ -26,19 +26,47 @@ import java.util.logging.Level;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import io.github.mkoncek.classpathless.api.ClassIdentifier;
 import io.github.mkoncek.classpathless.api.ClassesProvider;
+import io.github.mkoncek.classpathless.api.IdentifiedBytecode;
+import io.github.mkoncek.classpathless.api.OutputSink;
 
 /**
  * @implNote This class is implemented in terms of lazy loading. That makes it
  * possible for the JavaFileManager to expose file objects in its listing which
- * actually cannot be provided by the provider.
+ * actually cannot be provided by the provider. The bytecode obtained from the
+ * provider is streamed without copying and released once the stream is
+ * closed, a repeated read obtains it from the provider again.
  * @author Marián Konček
  */
 public class InMemoryJavaClassFileObject extends IdentifiedJavaFileObject {
     @SuppressFBWarnings(value = {"EI_EXPOSE_REP"}, justification = "logging is safe to share")
     private LoggingSwitch loggingSwitch;
     private ClassesProvider classProvider;
+    private IdentifiedBytecode bytecode = null;
     @SuppressFBWarnings(value = {"EI_EXPOSE_REP"}, justification = "it is intended to share the same stream with the writer")
-    private ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+    private OutputBuffer byteStream = new OutputBuffer();
+    private OutputSink outputSink = null;
+
+    /**
+     * The content written by the compiler which can be read without copying.
+     */
+    private class OutputBuffer extends ByteArrayOutputStream {
+        private boolean closed = false;
+
+        private InputStream openInputStream() {
+            return new ByteArrayInputStream(buf, 0, count);
+        }
+
+        @Override
+        public void close() {
+            if (outputSink != null && !closed) {
+                closed = true;
+                var output = new IdentifiedBytecode(getClassIdentifier(), toByteArray());
+                // The sink is the only holder of the content from now on
+                byteStream = new OutputBuffer();
+                outputSink.accept(output);
+            }
+        }
+    }
 
     public InMemoryJavaClassFileObject(String name, ClassesProvider classProvider, LoggingSwitch loggingSwitch) {
         super(URI.create("class:///" + name), Kind.CLASS);
@@ -50,6 +78,14 @@ public class InMemoryJavaClassFileObject extends IdentifiedJavaFileObject {
         this(name, classProvider, new LoggingSwitch.Null());
     }
 
+    /**
+     * @param outputSink If not null, accepts the content written to this file
+     * object once the output stream is closed, the content is not retained.
+     */
+    void setOutputSink(OutputSink outputSink) {
+        this.outputSink = outputSink;
+    }
+
     @Override
     ClassIdentifier getClassIdentifier() {
         return new ClassIdentifier(toUri().toString().substring(9));
@@ -59,12 +95,15 @@ public class InMemoryJavaClassFileObject extends IdentifiedJavaFileObject {
     public InputStream openInputStream() throws IOException {
         loggingSwitch.traceThis(this, getClassIdentifier().getFullName(), "openInputStream");
 
-        if (classProvider != null) {
+        if (classProvider == null) {
+            return byteStream.openInputStream();
+        }
+
+        if (bytecode == null) {
             var bytecodes = classProvider.getClass(getClassIdentifier());
             if (bytecodes.size() == 1) {
                 loggingSwitch.logln(Level.FINEST, "Found bytecode for {0}", this);
-                byteStream.write(bytecodes.iterator().next().getFile());
-                classProvider = null;
+                bytecode = bytecodes.iterator().next();
             } else if (bytecodes.size() == 0) {
                 loggingSwitch.logln(Level.FINEST, "Bytecode for {0} not found", this);
                 throw new RuntimeException("Compiler tried to access the bytecode of \"" + getClassIdentifier().getFullName() + "\" which could not be provided");
@@ -73,7 +112,15 @@ public class InMemoryJavaClassFileObject extends IdentifiedJavaFileObject {
             }
         }
 
-        return new ByteArrayInputStream(byteStream.toByteArray());
+        return new ByteBufferInputStream(bytecode.getBuffer()) {
+            @Override
+            public void close() {
+                // The compiler has read the class, do not retain the bytecode
+                // for the rest of the compilation
+                loggingSwitch.logln(Level.FINEST, "Releasing bytecode of {0}", InMemoryJavaClassFileObject.this);
+                bytecode = null;
+            }
+        };
     }
 
     @Override
@@ -31,10 +31,12 @@ import io.github.mkoncek.classpathless.api.IdentifiedSource;
  * @author Marián Konček
  */
 public class InMemoryJavaSourceFileObject extends IdentifiedJavaFileObject {
+    private static final String URI_PREFIX = "string:///";
+
     private String source;
 
     protected InMemoryJavaSourceFileObject(String name) {
-        super(URI.create("string:///" + name), Kind.SOURCE);
+        super(URI.create(URI_PREFIX + name), Kind.SOURCE);
     }
 
     public InMemoryJavaSourceFileObject(String name, String source) {
@@ -53,7 +55,7 @@ public class InMemoryJavaSourceFileObject extends IdentifiedJavaFileObject {
     @Override
     ClassIdentifier getClassIdentifier() {
         // Remove "string:///" prefix
-        return new ClassIdentifier(toUri().toString().substring(10));
+        return new ClassIdentifier(toUri().toString().substring(URI_PREFIX.length()));
     }
 
     IdentifiedSource getIdentifiedSource() {
@@ -73,8 +75,19 @@ public class InMemoryJavaSourceFileObject extends IdentifiedJavaFileObject {
         // NOTE: The JavaFileObject's toUri method needs to return something
         // that ends with the proper Java source file name and extension
         // otherwise the compiler throws an error
-        this(source.getClassIdentifier().getFullName().replace(".", "/") + ".java",
-                source.getSourceCode());
+        this(nameOf(source.getClassIdentifier()), source.getSourceCode());
+    }
+
+    private static String nameOf(ClassIdentifier sourceClass) {
+        return sourceClass.getFullName().replace(".", "/") + ".java";
+    }
+
+    /**
+     * @return The URI of the object created for a source of the class. The
+     * compiler may wrap the object, but its URI stays the same.
+     */
+    static URI uriOf(ClassIdentifier sourceClass) {
+        return URI.create(URI_PREFIX + nameOf(sourceClass));
     }
 
     @Override
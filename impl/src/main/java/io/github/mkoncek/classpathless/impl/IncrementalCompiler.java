@@ -0,0 +1,353 @@
+/*-
+ * Copyright (c) 2021 Marián Konček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.mkoncek.classpathless.impl;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import io.github.mkoncek.classpathless.api.ClassIdentifier;
+import io.github.mkoncek.classpathless.api.ClassesProvider;
+import io.github.mkoncek.classpathless.api.ClasspathlessCompiler;
+import io.github.mkoncek.classpathless.api.IdentifiedBytecode;
+import io.github.mkoncek.classpathless.api.IdentifiedSource;
+import io.github.mkoncek.classpathless.api.MessagesListener;
+import io.github.mkoncek.classpathless.util.BytecodeExtractor;
+
+/**
+ * A compiler of a set of sources which only recompiles the sources which
+ * changed since the previous invocation and the sources which reference a
+ * class the interface of which changed. The bytecode of the sources compiled
+ * previously is provided to the compiler in preference to the provider.
+ *
+ * @implNote With {@link CompilerJavac} the classes produced by a source are
+ * recorded from the compiler. Otherwise they are recognized by their names,
+ * that is the name of the source itself and its nested classes, and any other
+ * top-level class is attributed to the first source compiled together with it
+ * in the same package.
+ * <p>
+ * The compiler inlines the values of compile-time constants, therefore the
+ * bytecode does not show which classes a source reads constants from. With
+ * {@link CompilerJavac} these classes are recorded from the attributed trees.
+ * Otherwise a change of the constants of a class recompiles all the sources in
+ * its package and all the sources which mention its package.
+ */
+public class IncrementalCompiler {
+    private ClasspathlessCompiler compiler;
+
+    private Map<String, CompiledSource> sources = new TreeMap<>();
+    // Class name -> its interface, as extracted by BytecodeExtractor
+    private Map<String, SortedSet<String>> apis = new HashMap<>();
+    // Class name -> its constant fields, as extracted by BytecodeExtractor
+    private Map<String, SortedSet<String>> constants = new HashMap<>();
+    // Sources which must be recompiled because a previous invocation failed
+    private Set<String> pending = new TreeSet<>();
+    private Set<String> lastRecompiled = Collections.emptySet();
+
+    /**
+     * The state of a source after its last successful compilation.
+     */
+    private static class CompiledSource {
+        private byte[] content;
+        private List<IdentifiedBytecode> outputs = new ArrayList<>();
+        private Set<String> referenced = new TreeSet<>();
+
+        private CompiledSource(byte[] content) {
+            this.content = content;
+        }
+    }
+
+    /**
+     * A provider which provides the bytecode of the compiled sources and
+     * delegates everything else.
+     */
+    private class OverlayProvider implements ClassesProvider {
+        private ClassesProvider delegate;
+        private Map<String, IdentifiedBytecode> classes = new HashMap<>();
+
+        private OverlayProvider(ClassesProvider delegate) {
+            this.delegate = delegate;
+            for (var source : sources.values()) {
+                for (var output : source.outputs) {
+                    classes.put(output.getClassIdentifier().getFullName(), output);
+                }
+            }
+        }
+
+        @Override
+        public Collection<IdentifiedBytecode> getClass(ClassIdentifier... names) {
+            var result = new ArrayList<IdentifiedBytecode>();
+            var missing = new ArrayList<ClassIdentifier>();
+            for (var name : names) {
+                var bytecode = classes.get(name.getFullName());
+                if (bytecode != null) {
+                    result.add(bytecode);
+                } else {
+                    missing.add(name);
+                }
+            }
+            if (!missing.isEmpty()) {
+                result.addAll(delegate.getClass(missing.toArray(new ClassIdentifier[0])));
+            }
+            return result;
+        }
+
+        @Override
+        public List<String> getClassPathListing() {
+            var result = new ArrayList<>(delegate.getClassPathListing());
+            result.addAll(classes.keySet());
+            return result;
+        }
+    }
+
+    public IncrementalCompiler(ClasspathlessCompiler compiler) {
+        this.compiler = compiler;
+    }
+
+    private static String packageOf(String className) {
+        int dot = className.lastIndexOf('.');
+        return dot == -1 ? "" : className.substring(0, dot);
+    }
+
+    private static boolean isProducedBy(String className, String sourceName) {
+        return className.equals(sourceName) || className.startsWith(sourceName + "$");
+    }
+
+    /**
+     * Compile the sources which need to be compiled.
+     * @param classesProvider Provider for missing elements on the classpath.
+     * @param messagesListener Accepts any diagnostic or logging information
+     * from the compiler.
+     * @param javaSourceFiles All the sources, those which are not present
+     * are removed together with their bytecode.
+     * @return The bytecode of all the sources, either compiled now or during
+     * previous invocations.
+     */
+    public synchronized Collection<IdentifiedBytecode> compileClass(ClassesProvider classesProvider,
+            Optional<MessagesListener> messagesListener, IdentifiedSource... javaSourceFiles) {
+        var currentSources = new LinkedHashMap<String, IdentifiedSource>();
+        for (var source : javaSourceFiles) {
+            currentSources.put(source.getClassIdentifier().getFullName(), source);
+        }
+
+        var changedClasses = new TreeSet<String>();
+        var removed = sources.keySet().stream().filter(name -> !currentSources.containsKey(name)).toArray(String[]::new);
+        var changedConstants = new TreeSet<String>();
+        for (var name : removed) {
+            for (var output : sources.remove(name).outputs) {
+                changedClasses.add(output.getClassIdentifier().getFullName());
+                apis.remove(output.getClassIdentifier().getFullName());
+                if (!constants.remove(output.getClassIdentifier().getFullName()).isEmpty()) {
+                    changedConstants.add(output.getClassIdentifier().getFullName());
+                }
+            }
+        }
+        pending.retainAll(currentSources.keySet());
+
+        var toCompile = new TreeSet<String>(pending);
+        for (var source : currentSources.values()) {
+            var name = source.getClassIdentifier().getFullName();
+            var compiled = sources.get(name);
+            if (compiled == null || !Arrays.equals(compiled.content, source.getFile())) {
+                toCompile.add(name);
+            }
+        }
+        toCompile.addAll(referencing(changedClasses));
+        toCompile.addAll(mentioning(changedConstants, currentSources));
+
+        var recompiled = new TreeSet<String>();
+        while (!toCompile.isEmpty()) {
+            pending.addAll(toCompile);
+            var round = toCompile.stream().map(currentSources::get).toArray(IdentifiedSource[]::new);
+            var analysis = new SourceAnalysis();
+            Collection<IdentifiedBytecode> outputs;
+            if (compiler instanceof CompilerJavac) {
+                outputs = ((CompilerJavac) compiler).compileClassListening(new OverlayProvider(classesProvider), messagesListener,
+                        analysis::listener, round);
+            } else {
+                outputs = compiler.compileClass(new OverlayProvider(classesProvider), messagesListener, round);
+            }
+
+            changedConstants = new TreeSet<>();
+            changedClasses = update(round, outputs, analysis, changedConstants);
+            pending.removeAll(toCompile);
+            recompiled.addAll(toCompile);
+
+            var next = referencing(changedClasses);
+            next.addAll(mentioning(changedConstants, currentSources));
+            next.removeAll(toCompile);
+            toCompile = next;
+        }
+        lastRecompiled = Collections.unmodifiableSet(recompiled);
+
+        var result = new ArrayList<IdentifiedBytecode>();
+        for (var source : sources.values()) {
+            result.addAll(source.outputs);
+        }
+        return result;
+    }
+
+    /**
+     * Replace the state of compiled sources with the outputs.
+     * @param analysis The sources of the outputs and the classes whose
+     * constants the outputs read, empty unless the compiler records them.
+     * @param changedConstants Accepts the names of the classes the constants
+     * of which changed, unless the compiler records the constant references.
+     * @return The names of all the classes which were added, removed or the
+     * interface of which changed.
+     */
+    private TreeSet<String> update(IdentifiedSource[] round, Collection<IdentifiedBytecode> outputs,
+            SourceAnalysis analysis, Set<String> changedConstants) {
+        var previouslyOwned = new TreeSet<String>();
+        var compiled = new LinkedHashMap<String, CompiledSource>();
+        // URI of the source file object -> name of the source
+        var sourceNames = new HashMap<URI, String>();
+        for (var source : round) {
+            var name = source.getClassIdentifier().getFullName();
+            compiled.put(name, new CompiledSource(source.getFile()));
+            sourceNames.put(InMemoryJavaSourceFileObject.uriOf(source.getClassIdentifier()), name);
+            var previous = sources.get(name);
+            if (previous != null) {
+                for (var output : previous.outputs) {
+                    previouslyOwned.add(output.getClassIdentifier().getFullName());
+                }
+            }
+        }
+
+        for (var output : outputs) {
+            var className = output.getClassIdentifier().getFullName();
+            var owner = analysis.getSource(className).map(sourceNames::get)
+                    .or(() -> compiled.keySet().stream().filter(name -> isProducedBy(className, name)).findFirst())
+                    .or(() -> compiled.keySet().stream().filter(name -> packageOf(name).equals(packageOf(className))).findFirst())
+                    .orElse(compiled.keySet().iterator().next());
+            compiled.get(owner).outputs.add(output);
+        }
+
+        var changedClasses = new TreeSet<String>();
+        for (var source : compiled.values()) {
+            var owned = new TreeSet<String>();
+            for (var output : source.outputs) {
+                owned.add(output.getClassIdentifier().getFullName());
+            }
+            for (var output : source.outputs) {
+                var className = output.getClassIdentifier().getFullName();
+                var api = BytecodeExtractor.extractApi(output.getFile());
+                if (!api.equals(apis.put(className, api))) {
+                    changedClasses.add(className);
+                }
+                var classConstants = BytecodeExtractor.extractConstants(output.getFile());
+                var previousConstants = constants.put(className, classConstants);
+                if (!classConstants.equals(previousConstants == null ? Collections.emptySet() : previousConstants)) {
+                    changedConstants.add(className);
+                }
+                for (var referenced : BytecodeExtractor.extractTypenames(output.getFile())) {
+                    if (!owned.contains(referenced)) {
+                        source.referenced.add(referenced);
+                    }
+                }
+                for (var referenced : analysis.getConstantOwners(className)) {
+                    if (!owned.contains(referenced)) {
+                        source.referenced.add(referenced);
+                    }
+                }
+            }
+            previouslyOwned.removeAll(owned);
+        }
+
+        // Classes which are no longer produced
+        for (var className : previouslyOwned) {
+            apis.remove(className);
+            if (!constants.remove(className).isEmpty()) {
+                changedConstants.add(className);
+            }
+            changedClasses.add(className);
+        }
+
+        sources.putAll(compiled);
+        return changedClasses;
+    }
+
+    /**
+     * @return The names of the compiled sources which reference any of the
+     * classes.
+     */
+    private TreeSet<String> referencing(Set<String> classes) {
+        var result = new TreeSet<String>();
+        if (!classes.isEmpty()) {
+            for (var source : sources.entrySet()) {
+                if (source.getValue().referenced.stream().anyMatch(classes::contains)) {
+                    result.add(source.getKey());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Used instead of the recorded constant references when the compiler
+     * does not record them.
+     * @return The names of the current sources which are in the package of
+     * any of the classes or the text of which contains the name of the
+     * package.
+     */
+    private TreeSet<String> mentioning(Set<String> classes, Map<String, IdentifiedSource> currentSources) {
+        var result = new TreeSet<String>();
+        if (compiler instanceof CompilerJavac || classes.isEmpty()) {
+            return result;
+        }
+        var packages = classes.stream().map(IncrementalCompiler::packageOf).collect(Collectors.toSet());
+        for (var source : currentSources.entrySet()) {
+            var packageName = packageOf(source.getKey());
+            var text = new String(source.getValue().getFile(), StandardCharsets.UTF_8);
+            if (packages.contains(packageName) || packages.stream().anyMatch(name -> !name.isEmpty() && text.contains(name + "."))) {
+                result.add(source.getKey());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return The names of the sources which were compiled by the last
+     * invocation of compileClass.
+     */
+    public synchronized Set<String> getLastRecompiled() {
+        return lastRecompiled;
+    }
+
+    /**
+     * Forget all the compiled sources, the next invocation will compile all
+     * of them.
+     */
+    public synchronized void reset() {
+        sources.clear();
+        apis.clear();
+        constants.clear();
+        pending.clear();
+    }
+}
@@ -0,0 +1,76 @@
+/*-
+ * Copyright (c) 2021 Marián Konček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.mkoncek.classpathless.impl;
+
+import java.util.StringJoiner;
+
+import javax.tools.JavaFileObject;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A JFR event of a single listing of a package requested by the compiler.
+ */
+@SuppressFBWarnings(value = {"URF_UNREAD_FIELD"}, justification = "the fields are read by JFR")
+@Name("io.github.mkoncek.classpathless.List")
+@Label("File Manager Listing")
+@Category({"Classpathless Compiler"})
+@Description("A listing of a package requested from the file manager")
+class ListEvent extends Event {
+    @Label("Location")
+    String location;
+
+    @Label("Package Name")
+    String packageName;
+
+    @Label("Recursive")
+    boolean recurse;
+
+    @Label("Listed Files")
+    int listedFiles;
+
+    @Label("Class Names")
+    @Description("The class names of the listed files, no bytecode is read by the listing")
+    String classNames;
+
+    /**
+     * Commit the event if it is enabled.
+     */
+    void commit(String location, String packageName, boolean recurse, Iterable<JavaFileObject> result) {
+        end();
+        if (shouldCommit()) {
+            this.location = location;
+            this.packageName = packageName;
+            this.recurse = recurse;
+            var names = new StringJoiner(",");
+            for (var file : result) {
+                ++listedFiles;
+                if (file instanceof IdentifiedJavaFileObject) {
+                    names.add(((IdentifiedJavaFileObject) file).getClassIdentifier().getFullName());
+                } else {
+                    names.add(file.getName());
+                }
+            }
+            this.classNames = names.toString();
+            commit();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*-
+ * Copyright (c) 2021 Marián Konček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.mkoncek.classpathless.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A process-wide logging destination shared by all the logging switches. The
+ * lines are enqueued to a bounded ring buffer and written by a single daemon
+ * thread, so that the callers do not wait for the output and the lines of
+ * concurrent compilations are not interleaved. A file is opened only once.
+ *
+ * @implNote The callers block when the buffer is full rather than drop lines.
+ * The remaining lines are written at shutdown.
+ */
+final class LogSink {
+    private static final int CAPACITY = 8192;
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 1000;
+
+    // Destination -> sink, the empty destination is the standard error
+    private static final Map<String, LogSink> INSTANCES = new ConcurrentHashMap<>();
+
+    private PrintStream out;
+    private ArrayBlockingQueue<String> buffer = new ArrayBlockingQueue<>(CAPACITY);
+    private AtomicLong enqueued = new AtomicLong();
+    private long written = 0;
+
+    private LogSink(PrintStream out, String name) {
+        this.out = out;
+        var writer = new Thread(this::run, "cplc-logging" + (name.isEmpty() ? "" : ":" + name));
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                flush(SHUTDOWN_TIMEOUT_MILLIS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+    }
+
+    private static LogSink open(String destination) {
+        if (destination.isEmpty()) {
+            return new LogSink(System.err, destination);
+        }
+        try {
+            var os = new FileOutputStream(Paths.get(destination).toFile(), true);
+            return new LogSink(new PrintStream(new BufferedOutputStream(os), false, StandardCharsets.UTF_8), destination);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * @param destination The name of the file to append to or the empty
+     * string for the standard error.
+     * @return The sink of the destination, opened on the first request.
+     */
+    static LogSink getInstance(String destination) {
+        return INSTANCES.computeIfAbsent(destination, LogSink::open);
+    }
+
+    /**
+     * Enqueue a line to be written.
+     * @param line The line without the line separator.
+     */
+    void println(String line) {
+        enqueued.incrementAndGet();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                buffer.put(line);
+                break;
+            } catch (InterruptedException ex) {
+                // Do not lose the line, restore the status afterwards
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Wait until the lines enqueued so far are written.
+     * @param timeoutMillis The maximal time to wait, zero to wait indefinitely.
+     * @return Whether the lines were written.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    boolean flush(long timeoutMillis) throws InterruptedException {
+        long target = enqueued.get();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        synchronized (this) {
+            while (written < target) {
+                if (timeoutMillis == 0) {
+                    wait();
+                } else {
+                    long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    wait(remaining);
+                }
+            }
+        }
+        return true;
+    }
+
+    private void run() {
+        var lines = new ArrayList<String>();
+        while (true) {
+            try {
+                lines.add(buffer.take());
+            } catch (InterruptedException ex) {
+                continue;
+            }
+            buffer.drainTo(lines);
+            for (var line : lines) {
+                out.print(line);
+                out.print(System.lineSeparator());
+            }
+            out.flush();
+            synchronized (this) {
+                written += lines.size();
+                notifyAll();
+            }
+            lines.clear();
+        }
+    }
+}
@@ -15,13 +15,9 @@
  */
 package io.github.mkoncek.classpathless.impl;
 
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.PrintStream;
-import java.io.UncheckedIOException;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Paths;
 import java.text.MessageFormat;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -29,84 +25,105 @@ import java.util.stream.Stream;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import io.github.mkoncek.classpathless.api.MessagesListener;
 
+/**
+ * @implNote The methods with a fixed number of arguments check whether the
+ * message is wanted before anything is allocated, so that they are free to
+ * call on hot paths when logging is off. The variable arity methods allocate
+ * the array of arguments at the call site regardless. The output is written
+ * asynchronously by {@link LogSink}, each line is tagged with the number of
+ * the switch, which is unique within the process.
+ */
 public class LoggingSwitch implements AutoCloseable {
-    private PrintStream printer;
+    private static final AtomicLong COUNTER = new AtomicLong();
+
+    // Null if the output is discarded
+    private LogSink sink = null;
+    private String tag = "";
     @SuppressFBWarnings(value = {"EI_EXPOSE_REP"}, justification = "listener is safe to share")
     private MessagesListener listener;
-    private boolean tracing = false;
+    private volatile boolean tracing = false;
     private java.util.logging.Level logLevel = Level.OFF;
+    private java.util.logging.Level listenerLevel = Level.ALL;
+
+    // The lowest level of messages which are printed or passed to the listener
+    private volatile int printThreshold = Level.OFF.intValue();
+    private volatile int threshold = Level.OFF.intValue();
 
+    /**
+     * @implNote The sink is shared and stays open, the lines are written
+     * asynchronously.
+     */
     @Override
     public void close() throws Exception {
-        printer.flush();
-        if (printer != System.err) {
-            printer.close();
-        }
-    }
-
-    private static PrintStream newNullPrintStream() {
-        return new PrintStream(PrintStream.nullOutputStream(), false, StandardCharsets.UTF_8);
     }
 
     public static class Null extends LoggingSwitch {
         public Null() {
-            super(newNullPrintStream());
+            super(null);
         }
     }
 
-    private LoggingSwitch(PrintStream printer) {
-        this.printer = printer;
+    private LoggingSwitch(LogSink sink) {
+        this.sink = sink;
     }
 
     @SuppressFBWarnings("CT_CONSTRUCTOR_THROW")
     public LoggingSwitch() {
         var logging = System.getProperty("io.github.mkoncek.cplc.logging");
-        if (logging == null) {
-            printer = newNullPrintStream();
-        } else {
-            if (logging.isEmpty()) {
-                printer = System.err;
-            } else {
-                // DO NOT USE try-with-resources, we do not want to close the stream
-                try {
-                    var os = new FileOutputStream(Paths.get(logging).toFile(), true);
-                    printer = new PrintStream(os, true, StandardCharsets.UTF_8);
-                } catch (IOException ex) {
-                    throw new UncheckedIOException(ex);
-                }
-            }
+        if (logging != null) {
+            sink = LogSink.getInstance(logging);
+            tag = "#" + COUNTER.incrementAndGet() + " ";
         }
 
-        var level = Level.OFF;
         var loglevel = System.getProperty("io.github.mkoncek.cplc.loglevel");
-        if (loglevel != null) {
-            boolean validValue = false;
-
-            for (var innerLevel : new Level[] {
-                    Level.ALL, Level.FINEST, Level.FINER, Level.FINE, Level.CONFIG,
-                    Level.INFO, Level.WARNING, Level.SEVERE, Level.OFF}) {
-                if (innerLevel.toString().equalsIgnoreCase(loglevel)) {
-                    level = innerLevel;
-                    validValue = true;
-                    break;
-                }
-            }
+        setLogLevel(loglevel == null ? Level.OFF : parseLevel(loglevel));
 
-            if (!validValue) {
-                throw new IllegalArgumentException("Unrecognized logging level: \"" + loglevel + "\"");
-            }
+        if (System.getProperty("io.github.mkoncek.cplc.tracing") != null) {
+            setTracing(true);
         }
+    }
 
-        setLogLevel(level);
+    /**
+     * @return The level of the name or null if there is no such level.
+     */
+    private static Level findLevel(String value) {
+        for (var level : new Level[] {
+                Level.ALL, Level.FINEST, Level.FINER, Level.FINE, Level.CONFIG,
+                Level.INFO, Level.WARNING, Level.SEVERE, Level.OFF}) {
+            if (level.toString().equalsIgnoreCase(value)) {
+                return level;
+            }
+        }
+        return null;
+    }
 
-        if (System.getProperty("io.github.mkoncek.cplc.tracing") != null) {
-            setTracing(true);
+    private static Level parseLevel(String value) {
+        var level = findLevel(value);
+        if (level != null) {
+            return level;
         }
+        throw new IllegalArgumentException("Unrecognized logging level: \"" + value + "\"");
     }
 
+    private void updateThreshold() {
+        int value = sink == null ? Level.OFF.intValue() : logLevel.intValue();
+        printThreshold = value;
+        threshold = listener == null ? value : Math.min(value, listenerLevel.intValue());
+    }
+
+    /**
+     * Pass the messages to the listener if the property
+     * "io.github.mkoncek.cplc.log-to-provider" is defined. If its value is
+     * the name of a level, it is the lowest level of the passed messages,
+     * otherwise all of them are passed.
+     */
     public void setMessagesListener(MessagesListener listener) {
-        if (System.getProperty("io.github.mkoncek.cplc.log-to-provider") != null) {
+        var value = System.getProperty("io.github.mkoncek.cplc.log-to-provider");
+        if (value != null) {
             this.listener = listener;
+            var level = findLevel(value);
+            this.listenerLevel = level == null ? Level.ALL : level;
+            updateThreshold();
         }
     }
 
@@ -116,6 +133,28 @@ public class LoggingSwitch implements AutoCloseable {
 
     public void setLogLevel(java.util.logging.Level value) {
         this.logLevel = value;
+        updateThreshold();
+    }
+
+    /**
+     * @return Whether the tracing messages are printed.
+     */
+    public boolean isTracing() {
+        return tracing && isPrinted(Level.FINEST);
+    }
+
+    /**
+     * @return Whether a message of the level would be printed or passed to
+     * the listener.
+     */
+    public boolean isLoggable(java.util.logging.Level level) {
+        int value = level.intValue();
+        return value >= threshold && value != Level.OFF.intValue();
+    }
+
+    private boolean isPrinted(java.util.logging.Level level) {
+        int value = level.intValue();
+        return value >= printThreshold && value != Level.OFF.intValue();
     }
 
     private static String joinArgs(Object... args) {
@@ -123,42 +162,123 @@ public class LoggingSwitch implements AutoCloseable {
                 .collect(Collectors.joining(", "));
     }
 
+    public void trace(Object struct, String name) {
+        if (isTracing()) {
+            traceImpl(struct, name);
+        }
+    }
+
+    public void trace(Object struct, String name, Object arg) {
+        if (isTracing()) {
+            traceImpl(struct, name, arg);
+        }
+    }
+
+    public void trace(Object struct, String name, Object arg1, Object arg2) {
+        if (isTracing()) {
+            traceImpl(struct, name, arg1, arg2);
+        }
+    }
+
+    public void trace(Object struct, String name, Object arg1, Object arg2, Object arg3) {
+        if (isTracing()) {
+            traceImpl(struct, name, arg1, arg2, arg3);
+        }
+    }
+
+    public void trace(Object struct, String name, Object arg1, Object arg2, Object arg3, Object arg4) {
+        if (isTracing()) {
+            traceImpl(struct, name, arg1, arg2, arg3, arg4);
+        }
+    }
+
     public void trace(Object struct, String name, Object... args) {
-        if (tracing) {
-            logln(true, Level.FINEST, "[TRACE] invoking {0}::{1}({2})",
-                    struct.getClass().getName(), name, joinArgs(args));
+        if (isTracing()) {
+            traceImpl(struct, name, args);
+        }
+    }
+
+    private void traceImpl(Object struct, String name, Object... args) {
+        logln(true, Level.FINEST, "[TRACE] invoking {0}::{1}({2})",
+                struct.getClass().getName(), name, joinArgs(args));
+    }
+
+    public void traceThis(Object struct, String self, String name) {
+        if (isTracing()) {
+            traceThisImpl(struct, self, name);
         }
     }
 
     public void traceThis(Object struct, String self, String name, Object... args) {
-        if (tracing) {
-            logln(true, Level.FINEST, "[TRACE] invoking {0}::{1}({2}) [this = {3}]",
-                    struct.getClass().getName(), name, joinArgs(args), self);
+        if (isTracing()) {
+            traceThisImpl(struct, self, name, args);
         }
     }
 
+    private void traceThisImpl(Object struct, String self, String name, Object... args) {
+        logln(true, Level.FINEST, "[TRACE] invoking {0}::{1}({2}) [this = {3}]",
+                struct.getClass().getName(), name, joinArgs(args), self);
+    }
+
     public void trace(Object result) {
-        if (tracing) {
+        if (isTracing()) {
             logln(true, Level.FINEST, "[TRACE] returning {0}", result == null ? "<null>" : result.toString());
         }
     }
 
-    private void log(boolean traced, java.util.logging.Level level, String format, Object... args) {
-        if (!traced && listener != null) {
-            listener.addMessage(level, format, args);
+    private void logln(boolean traced, java.util.logging.Level level, String format, Object... args) {
+        if (!traced && listener != null && level.intValue() >= listenerLevel.intValue()) {
+            listener.addMessage(level, format + System.lineSeparator(), args);
         }
 
-        if (logLevel != Level.OFF && level.intValue() >= logLevel.intValue()) {
-            var message = "[CPLC.LOG] " + MessageFormat.format(format, args);
-            printer.print(message);
+        if (isPrinted(level)) {
+            sink.println("[CPLC.LOG] " + tag + MessageFormat.format(format, args));
         }
     }
 
-    private void logln(boolean traced, java.util.logging.Level level, String format, Object... args) {
-        log(traced, level, format + System.lineSeparator(), args);
+    public void logln(java.util.logging.Level level, String format) {
+        if (isLoggable(level)) {
+            logln(false, level, format);
+        }
+    }
+
+    public void logln(java.util.logging.Level level, String format, Object arg) {
+        if (isLoggable(level)) {
+            logln(false, level, format, arg);
+        }
+    }
+
+    public void logln(java.util.logging.Level level, String format, Object arg1, Object arg2) {
+        if (isLoggable(level)) {
+            logln(false, level, format, arg1, arg2);
+        }
+    }
+
+    public void logln(java.util.logging.Level level, String format, Object arg1, Object arg2, Object arg3) {
+        if (isLoggable(level)) {
+            logln(false, level, format, arg1, arg2, arg3);
+        }
     }
 
     public void logln(java.util.logging.Level level, String format, Object... args) {
-        logln(false, level, format, args);
+        if (isLoggable(level)) {
+            logln(false, level, format, args);
+        }
+    }
+
+    /**
+     * @param message Supplies the message which is not formatted, it is only
+     * invoked if the message is wanted.
+     */
+    public void logln(java.util.logging.Level level, Supplier<String> message) {
+        if (isLoggable(level)) {
+            var text = message.get();
+            if (listener != null && level.intValue() >= listenerLevel.intValue()) {
+                listener.addMessage(level, text + System.lineSeparator());
+            }
+            if (isPrinted(level)) {
+                sink.println("[CPLC.LOG] " + tag + text);
+            }
+        }
     }
 }
@@ -0,0 +1,158 @@
+/*-
+ * Copyright (c) 2021 Marián Konček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.mkoncek.classpathless.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Function;
+
+import javax.tools.JavaFileObject;
+
+/**
+ * The type names available to the compiler organized as a tree of packages.
+ * Listing a package takes time proportional to the size of the result and the
+ * file objects of each listing are kept until a class is added to the package.
+ *
+ * @implNote The listings are ordered by the fully qualified names.
+ */
+class PackageIndex {
+    private static class Node {
+        private Node parent;
+        // Simple names of the classes, including the nested ones
+        private TreeSet<String> classes = new TreeSet<>();
+        // Names of the subpackages followed by a dot, so that the classes of a
+        // subpackage are ordered the same way as the fully qualified names
+        private TreeMap<String, Node> subpackages = new TreeMap<>();
+
+        private List<JavaFileObject> listed = null;
+        private List<JavaFileObject> listedRecursive = null;
+
+        private Node(Node parent) {
+            this.parent = parent;
+        }
+    }
+
+    private Node root = new Node(null);
+
+    private Node findPackage(String packageName) {
+        var node = root;
+        if (!packageName.isEmpty()) {
+            for (var name : packageName.split("\\.")) {
+                node = node.subpackages.get(name + ".");
+                if (node == null) {
+                    break;
+                }
+            }
+        }
+        return node;
+    }
+
+    /**
+     * @return Whether the class was not present before.
+     */
+    boolean add(String className) {
+        var node = root;
+        int begin = 0;
+        for (int end = className.indexOf('.'); end != -1; end = className.indexOf('.', begin)) {
+            var parent = node;
+            node = node.subpackages.computeIfAbsent(className.substring(begin, end + 1), key -> new Node(parent));
+            begin = end + 1;
+        }
+
+        if (!node.classes.add(className.substring(begin))) {
+            return false;
+        }
+
+        node.listed = null;
+        for (; node != null; node = node.parent) {
+            node.listedRecursive = null;
+        }
+        return true;
+    }
+
+    void clear() {
+        root = new Node(null);
+    }
+
+    /**
+     * Forget the file objects of all the listings.
+     */
+    void clearListings() {
+        clearListings(root);
+    }
+
+    private static void clearListings(Node node) {
+        node.listed = null;
+        node.listedRecursive = null;
+        for (var subpackage : node.subpackages.values()) {
+            clearListings(subpackage);
+        }
+    }
+
+    private static void collect(Node node, String prefix, boolean recurse,
+            Function<String, JavaFileObject> fileObjects, List<JavaFileObject> result) {
+        if (!recurse) {
+            for (var simpleName : node.classes) {
+                result.add(fileObjects.apply(prefix + simpleName));
+            }
+            return;
+        }
+
+        // Merge the classes and the subpackages in the order of their names
+        var classes = node.classes.iterator();
+        var subpackages = node.subpackages.entrySet().iterator();
+        var simpleName = classes.hasNext() ? classes.next() : null;
+        var subpackage = subpackages.hasNext() ? subpackages.next() : null;
+        while (simpleName != null || subpackage != null) {
+            if (subpackage == null || (simpleName != null && simpleName.compareTo(subpackage.getKey()) < 0)) {
+                result.add(fileObjects.apply(prefix + simpleName));
+                simpleName = classes.hasNext() ? classes.next() : null;
+            } else {
+                collect(subpackage.getValue(), prefix + subpackage.getKey(), true, fileObjects, result);
+                subpackage = subpackages.hasNext() ? subpackages.next() : null;
+            }
+        }
+    }
+
+    /**
+     * @param fileObjects Creates the file object of a fully qualified class
+     * name, it is only invoked if the listing is not memoized.
+     * @return An unmodifiable list of the file objects of the classes of the
+     * package and, if recurse is true, of its subpackages.
+     */
+    List<JavaFileObject> list(String packageName, boolean recurse, Function<String, JavaFileObject> fileObjects) {
+        var node = findPackage(packageName);
+        if (node == null) {
+            return Collections.emptyList();
+        }
+
+        var result = recurse ? node.listedRecursive : node.listed;
+        if (result == null) {
+            var listing = new ArrayList<JavaFileObject>();
+            collect(node, packageName.isEmpty() ? "" : packageName + ".", recurse, fileObjects, listing);
+            result = Collections.unmodifiableList(listing);
+            if (recurse) {
+                node.listedRecursive = result;
+            } else {
+                node.listed = result;
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,373 @@
+/*-
+ * Copyright (c) 2021 Marián Konček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.mkoncek.classpathless.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import io.github.mkoncek.classpathless.api.ClassIdentifier;
+import io.github.mkoncek.classpathless.api.ClassesProvider;
+import io.github.mkoncek.classpathless.api.IdentifiedBytecode;
+import io.github.mkoncek.classpathless.api.IdentifiedSource;
+import io.github.mkoncek.classpathless.api.PackageListingClassesProvider;
+import io.github.mkoncek.classpathless.util.BytecodeExtractorAccessor;
+
+/**
+ * The type names derived from a provider, that is the filtered classpath
+ * listing and the dependencies found in the bytecode of each compiled source.
+ * The instances are thread-safe and may be shared by multiple sessions.
+ *
+ * @implNote The dependencies of a source are scanned again whenever the
+ * provider returns different bytecode for the source itself, everything else
+ * is only refreshed on invalidation.
+ */
+class ProviderIndex {
+    private ClassesProvider classesProvider;
+    private Executor dependencyExecutor;
+
+    private volatile SortedSet<String> classPathListing = null;
+    private Map<String, Collection<String>> packageListings = new ConcurrentHashMap<>();
+    private Map<String, ScannedSource> scannedSources = new ConcurrentHashMap<>();
+
+    /**
+     * The result of the dependency scan of a single source together with the
+     * bytecode it was computed from.
+     */
+    private static class ScannedSource {
+        private Collection<IdentifiedBytecode> bytecodes;
+        private Collection<String> dependencies;
+
+        private ScannedSource(Collection<IdentifiedBytecode> bytecodes, Collection<String> dependencies) {
+            this.bytecodes = bytecodes == null ? null : new ArrayList<>(bytecodes);
+            this.dependencies = dependencies;
+        }
+
+        private boolean matches(Collection<IdentifiedBytecode> other) {
+            if (bytecodes == null || other == null) {
+                return bytecodes == other;
+            }
+            if (bytecodes.size() != other.size()) {
+                return false;
+            }
+            Iterator<IdentifiedBytecode> it = other.iterator();
+            for (var bytecode : bytecodes) {
+                var otherBytecode = it.next();
+                if (bytecode == null || otherBytecode == null) {
+                    if (bytecode != otherBytecode) {
+                        return false;
+                    }
+                } else if (!bytecode.getClassIdentifier().equals(otherBytecode.getClassIdentifier())
+                        || !bytecode.getBuffer().equals(otherBytecode.getBuffer())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * A provider which reports each call of the delegate as a single batch.
+     */
+    private static class BatchReportingProvider implements ClassesProvider {
+        private ClassesProvider delegate;
+        private LoggingSwitch loggingSwitch;
+        private AtomicInteger batches = new AtomicInteger();
+        private AtomicInteger classes = new AtomicInteger();
+
+        private BatchReportingProvider(ClassesProvider delegate, LoggingSwitch loggingSwitch) {
+            this.delegate = delegate;
+            this.loggingSwitch = loggingSwitch;
+        }
+
+        @Override
+        public Collection<IdentifiedBytecode> getClass(ClassIdentifier... names) {
+            batches.incrementAndGet();
+            classes.addAndGet(names.length);
+            loggingSwitch.logln(Level.FINE, "Requesting a batch of {0} classes from the provider", names.length);
+            return delegate.getClass(names);
+        }
+
+        @Override
+        public List<String> getClassPathListing() {
+            return delegate.getClassPathListing();
+        }
+    }
+
+    /**
+     * @param dependencyExecutor The executor used to scan the dependencies in
+     * parallel or null to scan them on the calling thread.
+     */
+    ProviderIndex(ClassesProvider classesProvider, Executor dependencyExecutor) {
+        this.classesProvider = classesProvider;
+        this.dependencyExecutor = dependencyExecutor;
+    }
+
+    ProviderIndex(ClassesProvider classesProvider) {
+        this(classesProvider, null);
+    }
+
+    ClassesProvider getClassesProvider() {
+        return classesProvider;
+    }
+
+    void invalidate() {
+        classPathListing = null;
+        packageListings.clear();
+        scannedSources.clear();
+    }
+
+    void invalidate(Set<String> names) {
+        // Any class may have been added or removed
+        classPathListing = null;
+        packageListings.clear();
+        scannedSources.entrySet().removeIf(entry -> names.contains(entry.getKey())
+                || entry.getValue().dependencies.stream().anyMatch(names::contains));
+    }
+
+    private static boolean isListable(LoggingSwitch loggingSwitch, String className) {
+        if (className.charAt(0) == '[') {
+            loggingSwitch.logln(Level.FINE, "Ignoring array type from classpath listing: {0}", className);
+            return false;
+        }
+        if (className.contains("/")) {
+            loggingSwitch.logln(Level.FINE, "Ignoring lambda type from classpath listing: {0}", className);
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean isInPackage(String className, String packageName) {
+        if (packageName.isEmpty()) {
+            return className.indexOf('.') == -1;
+        }
+        return className.length() > packageName.length() + 1 && className.startsWith(packageName)
+                && className.charAt(packageName.length()) == '.'
+                && className.indexOf('.', packageName.length() + 1) == -1;
+    }
+
+    /**
+     * @return The type names of the classpath listing of the provider which
+     * belong to the package, excluding its subpackages. Providers which
+     * implement {@link PackageListingClassesProvider} are queried for the
+     * single package, the classpath listing is used otherwise.
+     */
+    Collection<String> getPackageListing(LoggingSwitch loggingSwitch, String packageName) {
+        var result = packageListings.get(packageName);
+        if (result == null) {
+            var listing = new ArrayList<String>();
+            if (classesProvider instanceof PackageListingClassesProvider) {
+                loggingSwitch.logln(Level.FINE, "Querying the provider for the listing of package \"{0}\"", packageName);
+                for (var className : ((PackageListingClassesProvider) classesProvider).getPackageListing(packageName)) {
+                    if (isListable(loggingSwitch, className)) {
+                        listing.add(className);
+                    }
+                }
+            } else {
+                for (var className : getClassPathListing(loggingSwitch).tailSet(packageName)) {
+                    if (!className.startsWith(packageName)) {
+                        break;
+                    }
+                    if (isInPackage(className, packageName)) {
+                        listing.add(className);
+                    }
+                }
+            }
+            result = Collections.unmodifiableList(listing);
+            packageListings.put(packageName, result);
+        }
+        return result;
+    }
+
+    /**
+     * @return An unmodifiable set of all the type names from the classpath
+     * listing of the provider which may be exposed to the compiler.
+     */
+    SortedSet<String> getClassPathListing(LoggingSwitch loggingSwitch) {
+        var result = classPathListing;
+        if (result == null) {
+            synchronized (this) {
+                result = classPathListing;
+                if (result == null) {
+                    var listing = new TreeSet<String>();
+                    for (var additionalClass : classesProvider.getClassPathListing()) {
+                        if (isListable(loggingSwitch, additionalClass)) {
+                            listing.add(additionalClass);
+                        }
+                    }
+                    result = Collections.unmodifiableSortedSet(listing);
+                    classPathListing = result;
+                }
+            }
+        } else {
+            loggingSwitch.logln(Level.FINE, "Reusing the classpath listing of {0} type names", result.size());
+        }
+        return result;
+    }
+
+    /**
+     * @param classesProvider The provider to obtain the bytecode from instead
+     * of the provider of this index, it must provide the same classes.
+     * @return The type names of the dependencies of all the sources found in
+     * the bytecode provided for them.
+     */
+    TreeSet<String> getDependencies(LoggingSwitch loggingSwitch, ClassesProvider classesProvider,
+            IdentifiedSource[] javaSourceFiles) {
+        var availableClasses = new TreeSet<String>();
+        if (javaSourceFiles.length == 0) {
+            return availableClasses;
+        }
+
+        var reportingProvider = new BatchReportingProvider(classesProvider, loggingSwitch);
+
+        // The bytecode of all the sources is obtained in a single call
+        var bytecodes = reportingProvider.getClass(Stream.of(javaSourceFiles)
+                .map(IdentifiedSource::getClassIdentifier).toArray(ClassIdentifier[]::new));
+
+        Map<ClassIdentifier, List<IdentifiedBytecode>> sourceBytecodes = null;
+        if (bytecodes != null) {
+            sourceBytecodes = new HashMap<>();
+            for (var source : javaSourceFiles) {
+                sourceBytecodes.put(source.getClassIdentifier(), new ArrayList<>());
+            }
+            for (var bytecode : bytecodes) {
+                if (bytecode == null) {
+                    loggingSwitch.logln(Level.WARNING, "ClassesProvider::getClass returned list contains null object for sources {0}",
+                            Stream.of(javaSourceFiles).map(source -> source.getClassIdentifier().getFullName())
+                            .collect(Collectors.toList()));
+                    continue;
+                }
+                var sourceBytecode = sourceBytecodes.get(bytecode.getClassIdentifier());
+                if (sourceBytecode == null) {
+                    // The provider may return nested or secondary classes
+                    // together with the requested ones, their dependencies
+                    // are scanned as well
+                    var name = bytecode.getClassIdentifier().getFullName();
+                    int dollar = name.indexOf('$');
+                    sourceBytecode = dollar == -1 ? null : sourceBytecodes.get(new ClassIdentifier(name.substring(0, dollar)));
+                }
+                if (sourceBytecode != null) {
+                    sourceBytecode.add(bytecode);
+                } else {
+                    loggingSwitch.logln(Level.FINE, "ClassesProvider::getClass returned unrequested class \"{0}\", attributing it to all the sources",
+                            bytecode.getClassIdentifier().getFullName());
+                    for (var otherBytecodes : sourceBytecodes.values()) {
+                        otherBytecodes.add(bytecode);
+                    }
+                }
+            }
+        }
+
+        for (var source : javaSourceFiles) {
+            availableClasses.addAll(scanSource(loggingSwitch, reportingProvider, source,
+                    sourceBytecodes == null ? null : sourceBytecodes.get(source.getClassIdentifier())));
+        }
+
+        loggingSwitch.logln(Level.INFO, "The dependency scan requested {0} classes from the provider in {1} batches",
+                reportingProvider.classes.get(), reportingProvider.batches.get());
+
+        return availableClasses;
+    }
+
+    private Collection<String> scanSource(LoggingSwitch loggingSwitch, ClassesProvider reportingProvider,
+            IdentifiedSource source, Collection<IdentifiedBytecode> bytecodes) {
+        var sourceName = source.getClassIdentifier().getFullName();
+
+        var scanned = scannedSources.get(sourceName);
+        if (scanned != null && scanned.matches(bytecodes)) {
+            loggingSwitch.logln(Level.FINE, "Reusing the dependencies of source \"{0}\"", sourceName);
+            return scanned.dependencies;
+        }
+
+        var dependencies = new TreeSet<String>();
+        if (areBytecodesValid(loggingSwitch, source, bytecodes)) {
+            for (var bytecode : bytecodes) {
+                if (isBytecodeValid(bytecode, loggingSwitch, source)) {
+                    extractAllDependenciesCatched(reportingProvider, dependencyExecutor, loggingSwitch, dependencies, source, bytecode);
+                }
+            }
+        }
+        scannedSources.put(sourceName, new ScannedSource(bytecodes, Collections.unmodifiableSortedSet(dependencies)));
+        return dependencies;
+    }
+
+    private static void extractAllDependenciesCatched(ClassesProvider classesProvider, Executor dependencyExecutor,
+            LoggingSwitch loggingSwitch, TreeSet<String> availableClasses, IdentifiedSource source, IdentifiedBytecode bytecode) {
+        try {
+            availableClasses.addAll(extractAllDependencies(classesProvider, dependencyExecutor, loggingSwitch, bytecode));
+        } catch (Exception ex) {
+            loggingSwitch.logln(Level.SEVERE, "An exception was thrown during the retrieval of referenced classes of bytecode '{0}' for source '{1}': '{2}'",
+                    bytecode.getClassIdentifier().getFullName(),
+                    source.getClassIdentifier().getFullName(),
+                    ex.toString());
+        }
+    }
+
+    private static Collection<String> extractAllDependencies(ClassesProvider classesProvider, Executor dependencyExecutor,
+            LoggingSwitch loggingSwitch, IdentifiedBytecode bytecode) {
+        Consumer<String> first = groupMember -> loggingSwitch.logln(Level.FINE,
+                "Adding class to classpath listing (nested group): '{0}'", groupMember);
+        Consumer<String> second = directlyReferenced -> loggingSwitch.logln(Level.FINE,
+                "Adding class to classpath listing (directly referenced): '{0}'", directlyReferenced);
+        Consumer<String> third = referencedOuter -> loggingSwitch.logln(Level.FINE,
+                "Adding class to classpath listing (outer class of directly referenced): '{0}'", referencedOuter);
+        if (dependencyExecutor != null) {
+            return BytecodeExtractorAccessor.extractDependenciesImpl(bytecode, classesProvider, dependencyExecutor,
+                    first, second, third);
+        }
+        return BytecodeExtractorAccessor.extractDependenciesImpl(bytecode, classesProvider, first, second, third);
+    }
+
+    private static boolean isBytecodeValid(IdentifiedBytecode bytecode,
+            LoggingSwitch loggingSwitch, IdentifiedSource source) {
+        if (bytecode == null) {
+            loggingSwitch.logln(Level.WARNING, "ClassesProvider::getClass returned list contains null object for source '{0}'",
+                    source.getClassIdentifier().getFullName());
+            return false;
+        } else if (bytecode.getSize() < 4) {
+            // 0xCAFEBABE
+            loggingSwitch.logln(Level.SEVERE, "Ignoring invalid bytecode '{0}' for source '{1}'",
+                    bytecode.getClassIdentifier().getFullName(),
+                    source.getClassIdentifier().getFullName());
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean areBytecodesValid(LoggingSwitch loggingSwitch,
+            IdentifiedSource source, Collection<IdentifiedBytecode> bytecodes) {
+        if (bytecodes == null) {
+            loggingSwitch.logln(Level.WARNING, "ClassesProvider::getClass returned null for source '{0}'",
+                    source.getClassIdentifier().getFullName());
+            return false;
+        }
+        return true;
+    }
+}
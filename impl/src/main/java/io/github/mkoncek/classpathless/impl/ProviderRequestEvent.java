@@ -0,0 +1,71 @@
+/*-
+ * Copyright (c) 2021 Marián Konček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.mkoncek.classpathless.impl;
+
+import java.util.Collection;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import io.github.mkoncek.classpathless.api.ClassIdentifier;
+import io.github.mkoncek.classpathless.api.IdentifiedBytecode;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A JFR event of a single getClass call of the provider.
+ */
+@SuppressFBWarnings(value = {"URF_UNREAD_FIELD"}, justification = "the fields are read by JFR")
+@Name("io.github.mkoncek.classpathless.ProviderRequest")
+@Label("Provider Request")
+@Category({"Classpathless Compiler"})
+@Description("A request of classes from the ClassesProvider")
+class ProviderRequestEvent extends Event {
+    @Label("Class Names")
+    String classNames;
+
+    @Label("Requested Classes")
+    int requestedClasses;
+
+    @Label("Provided Classes")
+    int providedClasses;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    /**
+     * Commit the event if it is enabled.
+     */
+    void commit(ClassIdentifier[] names, Collection<IdentifiedBytecode> result) {
+        end();
+        if (shouldCommit()) {
+            classNames = Stream.of(names).map(ClassIdentifier::getFullName).collect(Collectors.joining(","));
+            requestedClasses = names.length;
+            for (var bytecode : result) {
+                if (bytecode != null) {
+                    ++providedClasses;
+                    bytes += bytecode.getSize();
+                }
+            }
+            commit();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*-
+ * Copyright (c) 2021 Marián Konček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.mkoncek.classpathless.impl;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+
+import com.sun.source.tree.IdentifierTree;
+import com.sun.source.tree.MemberSelectTree;
+import com.sun.source.util.JavacTask;
+import com.sun.source.util.TaskEvent;
+import com.sun.source.util.TaskListener;
+import com.sun.source.util.TreePathScanner;
+import com.sun.source.util.Trees;
+
+/**
+ * Records the source which declares each compiled top-level class and which
+ * classes declare the compile-time constants read by the compiled classes.
+ * The compiler inlines the values of such constants, so the bytecode of the
+ * reading class does not reference the declaring class.
+ */
+class SourceAnalysis {
+    // Binary name of a compiled class -> binary names of the declaring classes
+    private Map<String, Set<String>> references = new HashMap<>();
+    // Binary name of a compiled top-level class -> URI of its source file object
+    private Map<String, URI> sources = new HashMap<>();
+
+    /**
+     * Create a listener which scans the attributed trees of the task.
+     * @param task The compiler task.
+     * @return The listener to be added to the task.
+     */
+    TaskListener listener(JavacTask task) {
+        var trees = Trees.instance(task);
+        var elements = task.getElements();
+        return new TaskListener() {
+            @Override
+            public void finished(TaskEvent event) {
+                if (event.getKind() != TaskEvent.Kind.ANALYZE || event.getTypeElement() == null) {
+                    return;
+                }
+                var path = trees.getPath(event.getTypeElement());
+                if (path == null) {
+                    return;
+                }
+                var className = elements.getBinaryName(event.getTypeElement()).toString();
+                sources.put(className, event.getSourceFile().toUri());
+                var owners = references.computeIfAbsent(className, name -> new TreeSet<>());
+                new TreePathScanner<Void, Void>() {
+                    private void record() {
+                        var element = trees.getElement(getCurrentPath());
+                        if (element instanceof VariableElement && ((VariableElement) element).getConstantValue() != null
+                                && element.getEnclosingElement() instanceof TypeElement) {
+                            owners.add(elements.getBinaryName((TypeElement) element.getEnclosingElement()).toString());
+                        }
+                    }
+
+                    @Override
+                    public Void visitIdentifier(IdentifierTree node, Void p) {
+                        record();
+                        return super.visitIdentifier(node, p);
+                    }
+
+                    @Override
+                    public Void visitMemberSelect(MemberSelectTree node, Void p) {
+                        record();
+                        return super.visitMemberSelect(node, p);
+                    }
+                }.scan(path, null);
+            }
+        };
+    }
+
+    /**
+     * @param className The binary name of a compiled class.
+     * @return The binary names of the classes which declare the constants
+     * read by the class, possibly also by its nested classes.
+     */
+    Set<String> getConstantOwners(String className) {
+        return references.getOrDefault(className, Collections.emptySet());
+    }
+
+    /**
+     * @param className The binary name of a compiled class.
+     * @return The URI of the source file object which declares the class or
+     * its top-level class.
+     */
+    Optional<URI> getSource(String className) {
+        var result = sources.get(className);
+        int dollar = className.indexOf('$');
+        if (result == null && dollar != -1) {
+            result = sources.get(className.substring(0, dollar));
+        }
+        return Optional.ofNullable(result);
+    }
+}
@@ -16,6 +16,7 @@
 package io.github.mkoncek.classpathless.util;
 
 import java.util.Collection;
+import java.util.concurrent.Executor;
 import java.util.function.Consumer;
 
 import io.github.mkoncek.classpathless.api.ClassesProvider;
@@ -27,4 +28,10 @@ public class BytecodeExtractorAccessor {
             Consumer<String> first, Consumer<String> second, Consumer<String> third) {
         return BytecodeExtractor.extractDependenciesImpl(initialClass, classesProvider, first, second, third);
     }
+
+    public static Collection<String> extractDependenciesImpl(
+            IdentifiedBytecode initialClass, ClassesProvider classesProvider, Executor executor,
+            Consumer<String> first, Consumer<String> second, Consumer<String> third) {
+        return BytecodeExtractor.extractDependenciesImpl(initialClass, classesProvider, executor, first, second, third);
+    }
 }
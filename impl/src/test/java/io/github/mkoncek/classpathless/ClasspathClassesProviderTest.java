@@ -0,0 +1,336 @@
+/*-
+ * Copyright (c) 2021 Marián Konček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.mkoncek.classpathless;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.TreeSet;
+import java.util.jar.JarOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.github.mkoncek.classpathless.api.ClassIdentifier;
+
+public class ClasspathClassesProviderTest {
+    private static final byte[] DIRECTORY_A = "directory A".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] JAR_A = "jar A".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] JAR_B = "jar B".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] JAR_LARGE = new byte[1 << 20];
+
+    static {
+        // Random content, so that the compressed entry is not tiny
+        new Random(0).nextBytes(JAR_LARGE);
+        for (int i = 0; i < JAR_LARGE.length; i += 2) {
+            JAR_LARGE[i] = 0;
+        }
+    }
+
+    private static void putStored(JarOutputStream jar, String name, byte[] content) throws IOException {
+        var entry = new ZipEntry(name);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(content.length);
+        var crc = new CRC32();
+        crc.update(content);
+        entry.setCrc(crc.getValue());
+        jar.putNextEntry(entry);
+        jar.write(content);
+        jar.closeEntry();
+    }
+
+    private static void putDeflated(JarOutputStream jar, String name, byte[] content) throws IOException {
+        jar.putNextEntry(new ZipEntry(name));
+        jar.write(content);
+        jar.closeEntry();
+    }
+
+    static Path writeJar(Path directory) throws IOException {
+        var file = directory.resolve("classes.jar");
+        try (var jar = new JarOutputStream(Files.newOutputStream(file))) {
+            putDeflated(jar, "a/A.class", JAR_A);
+            putStored(jar, "a/B.class", JAR_B);
+            putDeflated(jar, "a/Large.class", JAR_LARGE);
+            putDeflated(jar, "module-info.class", JAR_A);
+            putDeflated(jar, "META-INF/versions/11/a/A.class", JAR_B);
+            putDeflated(jar, "a/resource.txt", JAR_B);
+        }
+        return file;
+    }
+
+    static Path writeDirectory(Path directory) throws IOException {
+        var root = directory.resolve("classes");
+        Files.createDirectories(root.resolve("a"));
+        Files.write(root.resolve("a/A.class"), DIRECTORY_A);
+        return root;
+    }
+
+    private static byte[] get(ClasspathClassesProvider provider, String name) {
+        var result = provider.getClass(new ClassIdentifier(name));
+        assertEquals(1, result.size(), name);
+        return result.iterator().next().getFile();
+    }
+
+    @Test
+    public void testJar(@TempDir Path directory) throws IOException {
+        var jar = writeJar(directory);
+        var provider = new ClasspathClassesProvider(jar.toString());
+
+        assertEquals(new TreeSet<>(List.of("a.A", "a.B", "a.Large")), new TreeSet<>(provider.getClassPathListing()));
+        assertArrayEquals(JAR_A, get(provider, "a.A"));
+        assertArrayEquals(JAR_B, get(provider, "a.B"));
+        assertArrayEquals(JAR_LARGE, get(provider, "a.Large"));
+        assertTrue(provider.getClass(new ClassIdentifier("a.Missing")).isEmpty());
+
+        // Stored entries are not copied
+        assertTrue(provider.getClass(new ClassIdentifier("a.B")).iterator().next().isBufferBacked());
+    }
+
+    private static void assertCorrupt(Path jar, byte[] content) throws IOException {
+        Files.write(jar, content);
+        assertThrows(ZipException.class, () -> JarIndex.open(jar));
+    }
+
+    @Test
+    public void testCorruptJar(@TempDir Path directory) throws IOException {
+        var jar = writeJar(directory);
+        var content = Files.readAllBytes(jar);
+        var buffer = ByteBuffer.wrap(content).order(ByteOrder.LITTLE_ENDIAN);
+        int end = content.length - 22;
+        while (buffer.getInt(end) != 0x06054b50) {
+            --end;
+        }
+        int central = buffer.getInt(end + 16);
+
+        // The central directory starts too close to the end of the file
+        var corrupt = content.clone();
+        ByteBuffer.wrap(corrupt).order(ByteOrder.LITTLE_ENDIAN).putInt(end + 16, content.length - 10);
+        assertCorrupt(jar, corrupt);
+
+        // The name of an entry exceeds the file
+        corrupt = content.clone();
+        ByteBuffer.wrap(corrupt).order(ByteOrder.LITTLE_ENDIAN).putShort(central + 28, (short) 0xFFFF);
+        assertCorrupt(jar, corrupt);
+
+        // The local header lies at the end of the file
+        corrupt = content.clone();
+        ByteBuffer.wrap(corrupt).order(ByteOrder.LITTLE_ENDIAN).putInt(central + 42, content.length - 4);
+        Files.write(jar, corrupt);
+        var index = JarIndex.open(jar);
+        var ex = assertThrows(UncheckedIOException.class, () -> index.read(new ClassIdentifier("a.A")));
+        assertTrue(ex.getCause() instanceof ZipException);
+    }
+
+    @Test
+    public void testInvalidJar(@TempDir Path directory) throws IOException {
+        var classes = writeDirectory(directory);
+        var resource = Files.write(directory.resolve("resource.txt"), "not a jar".getBytes(StandardCharsets.UTF_8));
+        var classpath = resource + ClasspathClassesProvider.CP_SEPARATOR + classes;
+
+        // The file is skipped
+        var provider = new ClasspathClassesProvider(classpath);
+        assertArrayEquals(DIRECTORY_A, get(provider, "a.A"));
+
+        var lazy = ClasspathClassesProvider.lazy(classpath);
+        assertArrayEquals(DIRECTORY_A, get(lazy, "a.A"));
+        assertTrue(lazy.getClass(new ClassIdentifier("a.Missing")).isEmpty());
+        assertEquals(List.of("a.A"), lazy.getPackageListing("a"));
+    }
+
+    @Test
+    public void testPrecedence(@TempDir Path directory) throws IOException {
+        var jar = writeJar(directory);
+        var classes = writeDirectory(directory);
+
+        var provider = new ClasspathClassesProvider(jar + ClasspathClassesProvider.CP_SEPARATOR + classes);
+        assertArrayEquals(DIRECTORY_A, get(provider, "a.A"));
+        assertArrayEquals(JAR_B, get(provider, "a.B"));
+        assertEquals(3, provider.getClassPathListing().size());
+
+        provider = new ClasspathClassesProvider(classes + ClasspathClassesProvider.CP_SEPARATOR + jar);
+        assertArrayEquals(JAR_A, get(provider, "a.A"));
+        assertFalse(provider.classesToClassFilePaths.containsKey("a.A"));
+        assertEquals(3, provider.getClassPathListing().size());
+    }
+
+    @Test
+    public void testLibraryJar() throws Exception {
+        // The jar of JUnit as written by a regular build tool
+        var jar = Paths.get(Test.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        var provider = new ClasspathClassesProvider(jar.toString());
+        assertTrue(provider.getClassPathListing().contains("org.junit.jupiter.api.Test"));
+
+        try (var zip = new ZipFile(jar.toFile())) {
+            int classes = 0;
+            for (var it = zip.entries(); it.hasMoreElements();) {
+                var entry = it.nextElement();
+                var name = entry.getName();
+                if (name.endsWith(".class") && !name.startsWith("META-INF/") && !name.contains("-")) {
+                    try (var is = zip.getInputStream(entry)) {
+                        assertArrayEquals(is.readAllBytes(), get(provider, name.substring(0, name.length() - 6).replace('/', '.')));
+                    }
+                    ++classes;
+                }
+            }
+            assertEquals(classes, provider.getClassPathListing().size());
+        }
+    }
+
+    private static final FileTime OLD = FileTime.from(System.currentTimeMillis() - 3600_000, TimeUnit.MILLISECONDS);
+
+    private static void setOld(Path path) throws IOException {
+        Files.setLastModifiedTime(path, OLD);
+    }
+
+    @Test
+    public void testIndexCache(@TempDir Path directory) throws IOException {
+        var jar = writeJar(directory);
+        var classes = writeDirectory(directory);
+        Files.createDirectories(classes.resolve("a/b"));
+        Files.write(classes.resolve("a/b/C.class"), DIRECTORY_A);
+        for (var path : List.of(jar, classes, classes.resolve("a"), classes.resolve("a/b"))) {
+            setOld(path);
+        }
+        var indexFile = directory.resolve("index");
+        var classpath = classes + ClasspathClassesProvider.CP_SEPARATOR + jar;
+
+        var provider = new ClasspathClassesProvider(classpath, indexFile);
+        assertTrue(Files.exists(indexFile));
+        var listing = new TreeSet<>(provider.getClassPathListing());
+        assertEquals(new TreeSet<>(List.of("a.A", "a.B", "a.Large", "a.b.C")), listing);
+
+        // A removal which does not change the modification time is not noticed
+        Files.delete(classes.resolve("a/b/C.class"));
+        setOld(classes.resolve("a/b"));
+        provider = new ClasspathClassesProvider(classpath, indexFile);
+        assertEquals(listing, new TreeSet<>(provider.getClassPathListing()));
+        assertArrayEquals(JAR_A, get(provider, "a.A"));
+
+        // Only the changed directory is listed again
+        Files.write(classes.resolve("a/b/D.class"), DIRECTORY_A);
+        provider = new ClasspathClassesProvider(classpath, indexFile);
+        assertEquals(new TreeSet<>(List.of("a.A", "a.B", "a.Large", "a.b.D")), new TreeSet<>(provider.getClassPathListing()));
+        assertArrayEquals(DIRECTORY_A, get(provider, "a.b.D"));
+
+        // A changed jar is read again
+        try (var output = new JarOutputStream(Files.newOutputStream(jar))) {
+            putDeflated(output, "a/E.class", JAR_A);
+        }
+        provider = new ClasspathClassesProvider(classpath, indexFile);
+        assertEquals(new TreeSet<>(List.of("a.A", "a.E", "a.b.D")), new TreeSet<>(provider.getClassPathListing()));
+        assertArrayEquals(JAR_A, get(provider, "a.E"));
+
+        // An invalid file is ignored
+        Files.write(indexFile, new byte[] {1, 2, 3});
+        provider = new ClasspathClassesProvider(classpath, indexFile);
+        assertEquals(new TreeSet<>(List.of("a.A", "a.E", "a.b.D")), new TreeSet<>(provider.getClassPathListing()));
+
+        // So is a file with a negative count
+        try (var os = new DataOutputStream(Files.newOutputStream(indexFile))) {
+            os.writeUTF("cplc-classpath-index-1");
+            os.writeInt(1);
+            os.writeUTF(jar.toAbsolutePath().toString());
+            os.writeLong(0);
+            os.writeBoolean(true);
+            os.writeLong(0);
+            os.writeLong(0);
+            os.writeInt(-1);
+        }
+        provider = new ClasspathClassesProvider(classpath, indexFile);
+        assertEquals(new TreeSet<>(List.of("a.A", "a.E", "a.b.D")), new TreeSet<>(provider.getClassPathListing()));
+
+        // A file which cannot be written does not prevent the indexing
+        provider = new ClasspathClassesProvider(classpath, directory.resolve("nonexistent/index"));
+        assertEquals(new TreeSet<>(List.of("a.A", "a.E", "a.b.D")), new TreeSet<>(provider.getClassPathListing()));
+        assertFalse(Files.exists(directory.resolve("nonexistent")));
+    }
+
+    @Test
+    public void testManyRoots(@TempDir Path directory) throws IOException {
+        var roots = new ArrayList<String>();
+        for (int i = 0; i != 32; ++i) {
+            var root = directory.resolve("root" + i);
+            for (int j = 0; j != 16; ++j) {
+                var subdirectory = root.resolve("p" + j);
+                Files.createDirectories(subdirectory);
+                Files.write(subdirectory.resolve("Shared.class"), ("root" + i).getBytes(StandardCharsets.UTF_8));
+                Files.write(subdirectory.resolve("Own" + i + ".class"), ("root" + i).getBytes(StandardCharsets.UTF_8));
+            }
+            roots.add(root.toString());
+        }
+        roots.add(1, writeJar(directory).toString());
+
+        var provider = new ClasspathClassesProvider(String.join(ClasspathClassesProvider.CP_SEPARATOR, roots));
+        assertEquals(16 + 32 * 16 + 3, provider.getClassPathListing().size());
+        for (int j = 0; j != 16; ++j) {
+            assertArrayEquals("root31".getBytes(StandardCharsets.UTF_8), get(provider, "p" + j + ".Shared"));
+            assertArrayEquals("root5".getBytes(StandardCharsets.UTF_8), get(provider, "p" + j + ".Own5"));
+        }
+        assertArrayEquals(JAR_A, get(provider, "a.A"));
+    }
+
+    @Test
+    public void testLazy(@TempDir Path directory) throws IOException {
+        var jar = writeJar(directory);
+        var classes = writeDirectory(directory);
+        Files.createDirectories(classes.resolve("a/b"));
+        Files.write(classes.resolve("a/b/C.class"), DIRECTORY_A);
+        Files.write(classes.resolve("D.class"), DIRECTORY_A);
+
+        var provider = ClasspathClassesProvider.lazy(jar + ClasspathClassesProvider.CP_SEPARATOR + classes);
+        assertArrayEquals(DIRECTORY_A, get(provider, "a.A"));
+        assertArrayEquals(JAR_B, get(provider, "a.B"));
+        assertArrayEquals(DIRECTORY_A, get(provider, "a.b.C"));
+        assertArrayEquals(DIRECTORY_A, get(provider, "D"));
+        assertTrue(provider.getClass(new ClassIdentifier("a.Missing")).isEmpty());
+        assertEquals(new TreeSet<>(List.of("a.A", "a.B", "a.Large")), new TreeSet<>(provider.getPackageListing("a")));
+        assertEquals(List.of("a.b.C"), provider.getPackageListing("a.b"));
+        assertEquals(List.of("D"), provider.getPackageListing(""));
+        assertTrue(provider.getPackageListing("missing").isEmpty());
+        assertTrue(provider.classesToClassFilePaths.isEmpty());
+
+        provider = ClasspathClassesProvider.lazy(classes + ClasspathClassesProvider.CP_SEPARATOR + jar);
+        assertArrayEquals(JAR_A, get(provider, "a.A"));
+
+        // The whole listing indexes the roots
+        assertEquals(new TreeSet<>(List.of("a.A", "a.B", "a.Large", "a.b.C", "D")), new TreeSet<>(provider.getClassPathListing()));
+        assertArrayEquals(JAR_A, get(provider, "a.A"));
+        assertArrayEquals(DIRECTORY_A, get(provider, "a.b.C"));
+        assertEquals(new TreeSet<>(List.of("a.A", "a.B", "a.Large")), new TreeSet<>(provider.getPackageListing("a")));
+        assertEquals(List.of("D"), provider.getPackageListing(""));
+    }
+}
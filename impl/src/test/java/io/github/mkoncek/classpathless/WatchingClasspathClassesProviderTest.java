@@ -0,0 +1,197 @@
+/*-
+ * Copyright (c) 2021 Marián Konček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.mkoncek.classpathless;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.github.mkoncek.classpathless.api.ClassIdentifier;
+import io.github.mkoncek.classpathless.helpers.CachingClassesProvider;
+
+public class WatchingClasspathClassesProviderTest {
+    private static final byte[] CHANGED = "changed".getBytes(StandardCharsets.UTF_8);
+
+    private Set<String> reported = ConcurrentHashMap.newKeySet();
+
+    private void listen(ClassIdentifier... names) {
+        for (var name : names) {
+            reported.add(name.getFullName());
+        }
+    }
+
+    /**
+     * Wait until all the expected classes are reported and the condition
+     * holds, the events may be delivered in several batches.
+     */
+    private void await(BooleanSupplier condition, String... expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (!reported.containsAll(List.of(expected)) || !condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "Timed out waiting for " + List.of(expected) + ", received " + reported);
+            Thread.sleep(10);
+        }
+    }
+
+    private static byte[] get(ClasspathClassesProvider provider, String name) {
+        var result = provider.getClass(new ClassIdentifier(name));
+        assertEquals(1, result.size(), name);
+        return result.iterator().next().getFile();
+    }
+
+    @Test
+    public void testWatching(@TempDir Path directory) throws Exception {
+        var jar = ClasspathClassesProviderTest.writeJar(directory);
+        var classes = ClasspathClassesProviderTest.writeDirectory(directory);
+
+        try (var provider = new WatchingClasspathClassesProvider(jar + ClasspathClassesProvider.CP_SEPARATOR + classes)) {
+            provider.addChangeListener(this::listen);
+            assertEquals(new TreeSet<>(List.of("a.A", "a.B", "a.Large")), new TreeSet<>(provider.getClassPathListing()));
+            assertEquals(3, provider.getPackageListing("a").size());
+
+            // A new class in a new directory
+            Files.createDirectories(classes.resolve("a/b"));
+            Files.write(classes.resolve("a/b/C.class"), CHANGED);
+            await(() -> provider.classesToClassFilePaths.containsKey("a.b.C"), "a.b.C");
+            assertArrayEquals(CHANGED, get(provider, "a.b.C"));
+            assertEquals(List.of("a.b.C"), provider.getPackageListing("a.b"));
+
+            // A modified class
+            reported.clear();
+            Files.write(classes.resolve("a/A.class"), CHANGED);
+            await(() -> true, "a.A");
+            assertArrayEquals(CHANGED, get(provider, "a.A"));
+
+            // A deleted class which shadowed the class of the jar
+            reported.clear();
+            Files.delete(classes.resolve("a/A.class"));
+            await(() -> provider.classesToJars.containsKey("a.A"), "a.A");
+            assertFalse(provider.classesToClassFilePaths.containsKey("a.A"));
+
+            // A deleted directory
+            reported.clear();
+            Files.delete(classes.resolve("a/b/C.class"));
+            Files.delete(classes.resolve("a/b"));
+            await(() -> !provider.classesToClassFilePaths.containsKey("a.b.C"), "a.b.C");
+            assertTrue(provider.getClass(new ClassIdentifier("a.b.C")).isEmpty());
+            assertTrue(provider.getPackageListing("a.b").isEmpty());
+
+            // A replaced jar
+            var replacement = directory.resolve("replacement.jar");
+            try (var output = new JarOutputStream(Files.newOutputStream(replacement))) {
+                output.putNextEntry(new ZipEntry("a/E.class"));
+                output.write(CHANGED);
+                output.closeEntry();
+            }
+            reported.clear();
+            Files.move(replacement, jar, StandardCopyOption.REPLACE_EXISTING);
+            await(() -> provider.classesToJars.containsKey("a.E"), "a.A", "a.B", "a.Large", "a.E");
+            assertEquals(List.of("a.E"), provider.getClassPathListing());
+            assertArrayEquals(CHANGED, get(provider, "a.E"));
+        }
+    }
+
+    @Test
+    public void testShadowed(@TempDir Path directory) throws Exception {
+        var first = directory.resolve("first");
+        var second = directory.resolve("second");
+        Files.createDirectories(first);
+        Files.createDirectories(second);
+        Files.write(first.resolve("A.class"), CHANGED);
+        Files.write(second.resolve("A.class"), CHANGED);
+
+        try (var provider = new WatchingClasspathClassesProvider(first + ClasspathClassesProvider.CP_SEPARATOR + second)) {
+            provider.addChangeListener(this::listen);
+
+            // A change of a shadowed class is not reported
+            Files.write(first.resolve("A.class"), "first".getBytes(StandardCharsets.UTF_8));
+            Files.write(second.resolve("B.class"), CHANGED);
+            await(() -> true, "B");
+            assertFalse(reported.contains("A"));
+            assertArrayEquals(CHANGED, get(provider, "A"));
+        }
+    }
+
+    @Test
+    public void testCachingProvider(@TempDir Path directory) throws Exception {
+        var classes = ClasspathClassesProviderTest.writeDirectory(directory);
+
+        try (var provider = new WatchingClasspathClassesProvider(classes.toString())) {
+            var cache = new CachingClassesProvider(provider, 1 << 20, new CachingClassesProvider.LeastRecentlyUsed());
+            provider.addChangeListener(cache::invalidate);
+            provider.addChangeListener(this::listen);
+            var before = cache.getClass(new ClassIdentifier("a.A")).iterator().next().getFile();
+
+            Files.write(classes.resolve("a/A.class"), CHANGED);
+            await(() -> true, "a.A");
+            var after = cache.getClass(new ClassIdentifier("a.A")).iterator().next().getFile();
+            assertFalse(Arrays.equals(before, after));
+            assertArrayEquals(CHANGED, after);
+        }
+    }
+
+    @Test
+    public void testTransientChanges(@TempDir Path directory) throws Exception {
+        var jar = ClasspathClassesProviderTest.writeJar(directory);
+        var classes = ClasspathClassesProviderTest.writeDirectory(directory);
+
+        try (var provider = new WatchingClasspathClassesProvider(jar + ClasspathClassesProvider.CP_SEPARATOR + classes)) {
+            provider.addChangeListener(this::listen);
+
+            // Stored entries are not views of a mapping of the jar
+            var stored = provider.getClass(new ClassIdentifier("a.B")).iterator().next();
+            assertFalse(stored.getBuffer().isDirect());
+
+            // The jar is rewritten in place
+            Files.write(jar, new byte[] {1, 2, 3});
+            assertEquals("jar B", new String(stored.getFile(), StandardCharsets.UTF_8));
+
+            // Directories which disappear before they are registered
+            for (int i = 0; i != 100; ++i) {
+                var nested = classes.resolve("t" + i + "/u/v");
+                Files.createDirectories(nested);
+                Files.write(nested.resolve("T.class"), CHANGED);
+                Files.delete(nested.resolve("T.class"));
+                Files.delete(nested);
+                Files.delete(nested.getParent());
+                Files.delete(nested.getParent().getParent());
+            }
+
+            // The provider keeps watching
+            Files.write(classes.resolve("a/F.class"), CHANGED);
+            await(() -> provider.classesToClassFilePaths.containsKey("a.F"), "a.F");
+            assertArrayEquals(CHANGED, get(provider, "a.F"));
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*-
+ * Copyright (c) 2021 Marián Konček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.mkoncek.classpathless.helpers;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import io.github.mkoncek.classpathless.api.ClassIdentifier;
+import io.github.mkoncek.classpathless.api.ClassesProvider;
+import io.github.mkoncek.classpathless.api.IdentifiedBytecode;
+
+public class CachingClassesProviderTest {
+    /**
+     * Provides classes of 10 bytes filled with the current version and records
+     * the requested names.
+     */
+    private static class VersionedProvider implements ClassesProvider {
+        private byte version = 0;
+        private List<String> requested = new ArrayList<>();
+
+        @Override
+        public Collection<IdentifiedBytecode> getClass(ClassIdentifier... names) {
+            var result = new ArrayList<IdentifiedBytecode>();
+            for (var name : names) {
+                requested.add(name.getFullName());
+                var file = new byte[10];
+                Arrays.fill(file, version);
+                result.add(new IdentifiedBytecode(name, file));
+            }
+            return result;
+        }
+
+        @Override
+        public List<String> getClassPathListing() {
+            return List.of();
+        }
+    }
+
+    private static void get(ClassesProvider provider, String name) {
+        provider.getClass(new ClassIdentifier(name));
+    }
+
+    @Test
+    void testLeastRecentlyUsed() {
+        var delegate = new VersionedProvider();
+        var cache = new CachingClassesProvider(delegate, 30, new CachingClassesProvider.LeastRecentlyUsed());
+
+        get(cache, "A");
+        get(cache, "B");
+        get(cache, "C");
+        get(cache, "A");
+        assertEquals(30, cache.getCurrentBytes());
+
+        // Evicts B
+        get(cache, "D");
+        assertEquals(30, cache.getCurrentBytes());
+        get(cache, "A");
+        get(cache, "B");
+
+        assertEquals(List.of("A", "B", "C", "D", "B"), delegate.requested);
+        assertEquals(2, cache.getHitCount());
+        assertEquals(5, cache.getMissCount());
+    }
+
+    @Test
+    void testLeastFrequentlyUsed() {
+        var delegate = new VersionedProvider();
+        var cache = new CachingClassesProvider(delegate, 30, new CachingClassesProvider.LeastFrequentlyUsed());
+
+        get(cache, "A");
+        get(cache, "A");
+        get(cache, "B");
+        get(cache, "B");
+        get(cache, "C");
+
+        // Evicts C
+        get(cache, "D");
+        // Evicts D
+        get(cache, "C");
+        get(cache, "A");
+        get(cache, "B");
+
+        assertEquals(List.of("A", "B", "C", "D", "C"), delegate.requested);
+    }
+
+    @Test
+    void testTooLarge() {
+        var delegate = new VersionedProvider();
+        var cache = new CachingClassesProvider(delegate, 5);
+
+        get(cache, "A");
+        get(cache, "A");
+        assertEquals(0, cache.getCurrentBytes());
+        assertEquals(List.of("A", "A"), delegate.requested);
+    }
+
+    @Test
+    void testInvalidate() {
+        var delegate = new VersionedProvider();
+        var cache = new CachingClassesProvider(delegate, 100);
+
+        get(cache, "A");
+        get(cache, "B");
+
+        delegate.version = 1;
+        cache.invalidate(new ClassIdentifier("A"));
+        assertEquals(10, cache.getCurrentBytes());
+
+        var result = cache.getClass(new ClassIdentifier("A"), new ClassIdentifier("B"));
+        for (var bytecode : result) {
+            var expected = new byte[10];
+            if (bytecode.getClassIdentifier().getFullName().equals("A")) {
+                Arrays.fill(expected, (byte) 1);
+            }
+            assertArrayEquals(expected, bytecode.getFile());
+        }
+
+        cache.invalidate();
+        assertEquals(0, cache.getCurrentBytes());
+    }
+}
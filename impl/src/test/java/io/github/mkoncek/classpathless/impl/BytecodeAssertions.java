@@ -0,0 +1,35 @@
+/*-
+ * Copyright (c) 2021 Marián Konček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.mkoncek.classpathless.impl;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Collection;
+
+import io.github.mkoncek.classpathless.api.IdentifiedBytecode;
+
+public class BytecodeAssertions {
+    static void assertSameBytecode(Collection<IdentifiedBytecode> expected, Collection<IdentifiedBytecode> actual) {
+        assertEquals(expected.size(), actual.size());
+        var actit = actual.iterator();
+        for (var exp : expected) {
+            var act = actit.next();
+            assertEquals(exp.getClassIdentifier(), act.getClassIdentifier());
+            assertArrayEquals(exp.getFile(), act.getFile());
+        }
+    }
+}
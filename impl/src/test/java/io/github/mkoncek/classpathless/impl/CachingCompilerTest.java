@@ -0,0 +1,186 @@
+/*-
+ * Copyright (c) 2021 Marián Konček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.mkoncek.classpathless.impl;
+
+import static io.github.mkoncek.classpathless.impl.BytecodeAssertions.assertSameBytecode;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.github.mkoncek.classpathless.api.ClassIdentifier;
+import io.github.mkoncek.classpathless.api.IdentifiedBytecode;
+import io.github.mkoncek.classpathless.api.IdentifiedSource;
+import io.github.mkoncek.classpathless.helpers.SimpleClassesProvider;
+
+public class CachingCompilerTest {
+    private static final IdentifiedSource source = new IdentifiedSource(new ClassIdentifier("B"),
+            "public class B { int field = A.value(); }".getBytes(StandardCharsets.UTF_8));
+
+    private static SimpleClassesProvider providerOf(int value) {
+        var dependency = new IdentifiedSource(new ClassIdentifier("A"),
+                ("public class A { public static int value() { return " + value + "; } }").getBytes(StandardCharsets.UTF_8));
+        return new SimpleClassesProvider(new CompilerJavac().compileClass(new SimpleClassesProvider(), Optional.empty(), dependency));
+    }
+
+    @Test
+    void testMemory() {
+        var jc = new CompilerJavac();
+        var cache = new CachingCompiler(jc, 16);
+        var provider = providerOf(1);
+
+        var expected = jc.compileClass(provider, Optional.empty(), source);
+
+        assertSameBytecode(expected, cache.compileClass(provider, Optional.empty(), source));
+        assertEquals(0, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        assertSameBytecode(expected, cache.compileClass(provider, Optional.empty(), source));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        // The bytecode of a dependency read by the compiler has changed
+        cache.compileClass(providerOf(2), Optional.empty(), source);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+
+        // Both variants are held
+        cache.compileClass(provider, Optional.empty(), source);
+        cache.compileClass(providerOf(2), Optional.empty(), source);
+        assertEquals(3, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    void testDisk(@TempDir Path directory) {
+        var jc = new CompilerJavac();
+        var provider = providerOf(1);
+        var expected = jc.compileClass(provider, Optional.empty(), source);
+
+        var cache = new CachingCompiler(jc, 16, Optional.of(directory));
+        cache.compileClass(provider, Optional.empty(), source);
+        assertEquals(1, cache.getMissCount());
+
+        var other = new CachingCompiler(jc, 16, Optional.of(directory));
+        assertSameBytecode(expected, other.compileClass(provider, Optional.empty(), source));
+        assertEquals(1, other.getHitCount());
+        assertEquals(0, other.getMissCount());
+
+        other.compileClass(providerOf(2), Optional.empty(), source);
+        assertEquals(1, other.getMissCount());
+    }
+
+    @Test
+    void testCorruptDisk(@TempDir Path directory) throws IOException {
+        var jc = new CompilerJavac();
+        var provider = providerOf(1);
+        var expected = jc.compileClass(provider, Optional.empty(), source);
+        new CachingCompiler(jc, 16, Optional.of(directory)).compileClass(provider, Optional.empty(), source);
+
+        // Truncate the stored entry as if the writer crashed
+        List<Path> entries;
+        try (var stream = Files.walk(directory)) {
+            entries = stream.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+        assertEquals(1, entries.size());
+        var content = Files.readAllBytes(entries.get(0));
+        Files.write(entries.get(0), Arrays.copyOf(content, content.length / 2));
+
+        var other = new CachingCompiler(jc, 16, Optional.of(directory));
+        assertSameBytecode(expected, other.compileClass(provider, Optional.empty(), source));
+        assertEquals(0, other.getHitCount());
+        assertEquals(1, other.getMissCount());
+
+        // The entry was written again
+        var third = new CachingCompiler(jc, 16, Optional.of(directory));
+        assertSameBytecode(expected, third.compileClass(provider, Optional.empty(), source));
+        assertEquals(1, third.getHitCount());
+    }
+
+    @Test
+    void testUnusableDisk(@TempDir Path directory) throws IOException {
+        var jc = new CompilerJavac();
+        var provider = providerOf(1);
+        var expected = jc.compileClass(provider, Optional.empty(), source);
+        new CachingCompiler(jc, 16, Optional.of(directory)).compileClass(provider, Optional.empty(), source);
+
+        // The entry can neither be read, removed nor replaced
+        List<Path> entries;
+        try (var stream = Files.walk(directory)) {
+            entries = stream.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+        assertEquals(1, entries.size());
+        Files.delete(entries.get(0));
+        Files.createDirectories(entries.get(0).resolve("nested"));
+
+        var other = new CachingCompiler(jc, 16, Optional.of(directory));
+        assertSameBytecode(expected, other.compileClass(provider, Optional.empty(), source));
+        assertEquals(1, other.getMissCount());
+        assertSameBytecode(expected, other.compileClass(provider, Optional.empty(), source));
+        assertEquals(1, other.getHitCount());
+
+        // The cache directory cannot be created
+        var file = Files.createFile(directory.resolve("file"));
+        var unwritable = new CachingCompiler(jc, 16, Optional.of(file));
+        assertSameBytecode(expected, unwritable.compileClass(provider, Optional.empty(), source));
+        assertEquals(1, unwritable.getMissCount());
+    }
+
+    @Test
+    void testListing() {
+        var jc = new CompilerJavac();
+        var compiled = providerOf(1);
+        var listings = new AtomicInteger();
+        var listing = new ArrayList<>(compiled.getClassPathListing());
+        var provider = new SimpleClassesProvider() {
+            @Override
+            public Collection<IdentifiedBytecode> getClass(ClassIdentifier... names) {
+                return compiled.getClass(names);
+            }
+
+            @Override
+            public List<String> getClassPathListing() {
+                listings.incrementAndGet();
+                return listing;
+            }
+        };
+
+        var cache = new CachingCompiler(jc, 16);
+        cache.compileClass(provider, Optional.empty(), source);
+        cache.compileClass(provider, Optional.empty(), source);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, listings.get());
+
+        // A class added to the listing is reported
+        listing.add("C");
+        cache.invalidate(new ClassIdentifier("C"));
+        cache.compileClass(provider, Optional.empty(), source);
+        assertEquals(2, cache.getMissCount());
+        assertEquals(2, listings.get());
+    }
+}
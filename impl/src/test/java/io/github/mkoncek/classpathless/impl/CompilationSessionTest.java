@@ -0,0 +1,93 @@
+/*-
+ * Copyright (c) 2021 Marián Konček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.mkoncek.classpathless.impl;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.jupiter.api.Test;
+
+import io.github.mkoncek.classpathless.api.ClassIdentifier;
+import io.github.mkoncek.classpathless.api.ClassesProvider;
+import io.github.mkoncek.classpathless.api.IdentifiedBytecode;
+import io.github.mkoncek.classpathless.api.IdentifiedSource;
+import io.github.mkoncek.classpathless.helpers.NullClassesProvider;
+import io.github.mkoncek.classpathless.helpers.NullMessagesListener;
+
+public class CompilationSessionTest {
+    private static class CountingProvider implements ClassesProvider {
+        private ClassesProvider delegate = new NullClassesProvider();
+        private int listings = 0;
+
+        @Override
+        public Collection<IdentifiedBytecode> getClass(ClassIdentifier... names) {
+            return delegate.getClass(names);
+        }
+
+        @Override
+        public List<String> getClassPathListing() {
+            ++listings;
+            return delegate.getClassPathListing();
+        }
+    }
+
+    private static IdentifiedSource readSource(String name, String path) throws IOException {
+        try (var is = new FileInputStream(path)) {
+            return new IdentifiedSource(new ClassIdentifier(name), is.readAllBytes());
+        }
+    }
+
+    @Test
+    void testRepeatedCompilation() throws IOException {
+        var source = readSource("Hello", "src/test/resources/io/github/mkoncek/classpathless/impl/anonymous-inner-class/Hello.java");
+        var provider = new CountingProvider();
+        var jc = new CompilerJavac();
+
+        var expected = jc.compileClass(provider, Optional.of(NullMessagesListener.INSTANCE), source);
+        assertEquals(1, provider.listings);
+
+        try (var session = jc.openSession(provider)) {
+            for (int i = 0; i != 3; ++i) {
+                var result = session.compileClass(Optional.of(NullMessagesListener.INSTANCE), source);
+                assertEquals(expected.size(), result.size());
+
+                var expit = expected.iterator();
+                var actit = result.iterator();
+                while (expit.hasNext()) {
+                    var exp = expit.next();
+                    var act = actit.next();
+                    assertEquals(exp.getClassIdentifier(), act.getClassIdentifier());
+                    assertArrayEquals(exp.getFile(), act.getFile());
+                }
+            }
+            assertEquals(2, provider.listings);
+
+            session.invalidate();
+            session.compileClass(Optional.of(NullMessagesListener.INSTANCE), source);
+            assertEquals(3, provider.listings);
+
+            session.invalidate(new ClassIdentifier("java.lang.Object"));
+            session.compileClass(Optional.of(NullMessagesListener.INSTANCE), source);
+            assertEquals(4, provider.listings);
+        }
+    }
+}
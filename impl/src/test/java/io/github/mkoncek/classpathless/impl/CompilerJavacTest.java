@@ -17,22 +17,42 @@ package io.github.mkoncek.classpathless.impl;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.FileInputStream;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Optional;
 import java.util.TreeSet;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.stream.Collectors;
 
 import org.junit.jupiter.api.Test;
 
 import io.github.mkoncek.classpathless.api.ClassIdentifier;
+import io.github.mkoncek.classpathless.api.ClasspathlessCompiler.Arguments;
+import io.github.mkoncek.classpathless.api.IdentifiedBytecode;
 import io.github.mkoncek.classpathless.api.IdentifiedSource;
 import io.github.mkoncek.classpathless.api.MessagesListener;
+import io.github.mkoncek.classpathless.helpers.MemoizingClassesProvider;
 import io.github.mkoncek.classpathless.helpers.NullClassesProvider;
 import io.github.mkoncek.classpathless.helpers.PrintingMessagesListener;
+import io.github.mkoncek.classpathless.helpers.SimpleClassesProvider;
 
 public class CompilerJavacTest {
     private static final SystemJavac javac = new SystemJavac();
@@ -237,4 +257,305 @@ public class CompilerJavacTest {
             assertEquals(false, actit.hasNext());
         }
     }
+
+    @Test
+    public void testBatch() throws Exception {
+        setProperties();
+
+        var units = new ArrayList<IdentifiedSource[]>();
+        for (var name : new String[] {"simple-class", "nested-class", "anonymous-inner-class", "simple-class"}) {
+            try (var is = new FileInputStream("src/test/resources/io/github/mkoncek/classpathless/impl/" + name + "/Hello.java")) {
+                units.add(new IdentifiedSource[] {new IdentifiedSource(new ClassIdentifier("Hello"), is.readAllBytes())});
+            }
+        }
+        units.add(2, new IdentifiedSource[] {new IdentifiedSource(new ClassIdentifier("Broken"),
+                "public class Broken { Missing field; }".getBytes(StandardCharsets.UTF_8))});
+
+        var provider = new NullClassesProvider();
+        var jc = new CompilerJavac();
+        var results = jc.compileBatch(provider, units, 3);
+        assertEquals(units.size(), results.size());
+
+        for (int i = 0; i != units.size(); ++i) {
+            var result = results.get(i);
+            if (i == 2) {
+                assertFalse(result.isSuccessful());
+                assertTrue(result.getBytecode().isEmpty());
+                assertTrue(result.getMessages().stream().anyMatch(message -> message.getLevel().equals(Level.SEVERE)
+                        && message.getMessage().contains("Missing")));
+                continue;
+            }
+
+            assertTrue(result.isSuccessful());
+            assertTrue(result.getMessages().stream().noneMatch(message -> message.getMessage().contains("Missing")));
+
+            var expected = new TreeSet<byte[]>(byteArrayComparator);
+            for (var ib : jc.compileClass(provider, Optional.empty(), units.get(i))) {
+                expected.add(ib.getFile());
+            }
+            var actual = new TreeSet<byte[]>(byteArrayComparator);
+            for (var ib : result.getBytecode()) {
+                actual.add(ib.getFile());
+            }
+
+            assertEquals(expected.size(), actual.size());
+            var actit = actual.iterator();
+            for (var exp : expected) {
+                assertArrayEquals(exp, actit.next());
+            }
+        }
+    }
+
+    @Test
+    public void testAsync() throws Exception {
+        setProperties();
+
+        byte[] content;
+        try (var is = new FileInputStream("src/test/resources/io/github/mkoncek/classpathless/impl/nested-class/Hello.java")) {
+            content = is.readAllBytes();
+        }
+
+        var jc = new CompilerJavac();
+        var source = new IdentifiedSource(new ClassIdentifier("Hello"), content);
+
+        var expected = new TreeSet<byte[]>(byteArrayComparator);
+        for (var ib : jc.compileClass(new NullClassesProvider(), Optional.empty(), source)) {
+            expected.add(ib.getFile());
+        }
+
+        var actual = new TreeSet<byte[]>(byteArrayComparator);
+        for (var ib : jc.compileClassAsync(new NullClassesProvider(), printingListener, source).get()) {
+            actual.add(ib.getFile());
+        }
+
+        assertEquals(expected.size(), actual.size());
+        var actit = actual.iterator();
+        for (var exp : expected) {
+            assertArrayEquals(exp, actit.next());
+        }
+    }
+
+    @Test
+    public void testAsyncCancel() throws Exception {
+        setProperties();
+
+        var tasks = new ArrayList<Runnable>();
+        var future = new AtomicReference<CompletableFuture<Collection<IdentifiedBytecode>>>();
+        var requestedClasses = new AtomicInteger();
+
+        var provider = new NullClassesProvider() {
+            @Override
+            public Collection<IdentifiedBytecode> getClass(ClassIdentifier... names) {
+                requestedClasses.addAndGet(names.length);
+                return super.getClass(names);
+            }
+
+            @Override
+            public List<String> getClassPathListing() {
+                future.get().cancel(true);
+                return Arrays.asList("A");
+            }
+        };
+
+        var source = new IdentifiedSource(new ClassIdentifier("Hello"),
+                "public class Hello { A field; }".getBytes(StandardCharsets.UTF_8));
+
+        var jc = new CompilerJavac();
+        future.set(jc.compileClassAsync(provider, printingListener, tasks::add, source));
+        assertEquals(1, tasks.size());
+
+        // Only the dependency scan of the source itself may query the provider
+        tasks.get(0).run();
+        assertTrue(future.get().isCancelled());
+        assertEquals(1, requestedClasses.get());
+
+        // Nothing is compiled when the future is cancelled before the start
+        tasks.clear();
+        var cancelled = jc.compileClassAsync(new NullClassesProvider(), printingListener, tasks::add, source);
+        cancelled.cancel(true);
+        tasks.get(0).run();
+        assertThrows(CancellationException.class, () -> cancelled.get());
+    }
+
+    @Test
+    public void testMemoizedLookups() throws Exception {
+        setProperties();
+
+        var jc = new CompilerJavac();
+        var dependency = new IdentifiedSource(new ClassIdentifier("A"),
+                "public class A { public static class Inner { } }".getBytes(StandardCharsets.UTF_8));
+        var bytecode = new ArrayList<IdentifiedBytecode>(jc.compileClass(new SimpleClassesProvider(), Optional.empty(), dependency));
+        var source = new IdentifiedSource(new ClassIdentifier("B"),
+                "public class B { A.Inner field = new A.Inner(); }".getBytes(StandardCharsets.UTF_8));
+        bytecode.addAll(jc.compileClass(new SimpleClassesProvider(bytecode), Optional.empty(), source));
+
+        var requests = new HashMap<String, Integer>();
+        var provider = new SimpleClassesProvider(bytecode) {
+            @Override
+            public Collection<IdentifiedBytecode> getClass(ClassIdentifier... names) {
+                for (var name : names) {
+                    requests.merge(name.getFullName(), 1, Integer::sum);
+                }
+                return super.getClass(names);
+            }
+        };
+
+        jc.compileClass(provider, printingListener, source);
+        assertTrue(requests.containsKey("A$Inner"));
+        for (var request : requests.entrySet()) {
+            assertEquals(1, request.getValue(), request.getKey());
+        }
+
+        var memoizing = new MemoizingClassesProvider(provider);
+        requests.clear();
+        memoizing.getClass(new ClassIdentifier("A"), new ClassIdentifier("Missing"));
+        memoizing.getClass(new ClassIdentifier("A"), new ClassIdentifier("Missing"));
+        assertEquals(Integer.valueOf(1), requests.get("Missing"));
+        assertEquals(2, memoizing.getHitCount());
+        assertEquals(2, memoizing.getMissCount());
+    }
+
+    @Test
+    public void testOutputSink() throws Exception {
+        setProperties();
+
+        var jc = new CompilerJavac();
+        var source = new IdentifiedSource(new ClassIdentifier("A"),
+                "public class A { public static class Inner { } Runnable r = new Runnable() { public void run() { } }; }".getBytes(StandardCharsets.UTF_8));
+        var expected = jc.compileClass(new SimpleClassesProvider(), Optional.empty(), source);
+
+        var sunk = new ArrayList<IdentifiedBytecode>();
+        jc.compileClass(new SimpleClassesProvider(), printingListener, sunk::add, source);
+
+        assertEquals(3, sunk.size());
+        for (var exp : expected) {
+            var act = sunk.stream().filter(bytecode -> bytecode.getClassIdentifier().equals(exp.getClassIdentifier())).findFirst();
+            assertTrue(act.isPresent(), exp.getClassIdentifier().getFullName());
+            assertArrayEquals(exp.getFile(), act.get().getFile());
+        }
+    }
+
+    @Test
+    public void testOutputSinkLazy() throws Exception {
+        setProperties();
+
+        var jc = new CompilerJavac(new Arguments().lazyDependencies(true));
+        var sourceA = new IdentifiedSource(new ClassIdentifier("A"),
+                "public class A { }".getBytes(StandardCharsets.UTF_8));
+        var sourceB = new IdentifiedSource(new ClassIdentifier("B"),
+                "public class B { int field = \"\"; }".getBytes(StandardCharsets.UTF_8));
+
+        var sunk = new ArrayList<IdentifiedBytecode>();
+        jc.compileClass(new SimpleClassesProvider(), printingListener, sunk::add, sourceA);
+        assertEquals(1, sunk.size());
+
+        // The failed lazy attempt does not pass its classes to the sink
+        sunk.clear();
+        assertThrows(RuntimeException.class, () -> jc.compileClass(new SimpleClassesProvider(), Optional.empty(), sunk::add, sourceA, sourceB));
+        var names = sunk.stream().map(bytecode -> bytecode.getClassIdentifier().getFullName()).collect(Collectors.toList());
+        assertEquals(new TreeSet<>(names).size(), names.size(), names.toString());
+    }
+
+    @Test
+    public void testStatistics() throws Exception {
+        setProperties();
+
+        var jc = new CompilerJavac();
+        var dependency = new IdentifiedSource(new ClassIdentifier("A"),
+                "public class A { }".getBytes(StandardCharsets.UTF_8));
+        var provider = new SimpleClassesProvider(jc.compileClass(new SimpleClassesProvider(), Optional.empty(), dependency));
+        var source = new IdentifiedSource(new ClassIdentifier("B"),
+                "public class B extends A { }".getBytes(StandardCharsets.UTF_8));
+
+        var statistics = new CompilationStatistics();
+        assertEquals(1, jc.compileClass(provider, printingListener, statistics, source).size());
+
+        assertTrue(statistics.getProviderRequests() > 0);
+        assertTrue(statistics.getProviderBytes() > 0);
+        assertEquals(1, statistics.getOpenedClasses());
+        assertTrue(statistics.getRegisteredClasses() > 0);
+        assertTrue(statistics.getListInvocations() > 0);
+        assertTrue(statistics.getParseTime().toNanos() > 0);
+        assertTrue(statistics.getGenerateTime().toNanos() > 0);
+        assertTrue(statistics.getTotalTime().compareTo(statistics.getAnalyzeTime()) > 0);
+    }
+
+    @Test
+    public void testStatisticsPhases() throws Exception {
+        setProperties();
+
+        var jc = new CompilerJavac();
+        var sources = new IdentifiedSource[4];
+        for (int i = 0; i != sources.length; ++i) {
+            sources[i] = new IdentifiedSource(new ClassIdentifier("C" + i),
+                    ("public class C" + i + " { Object value = new java.util.ArrayList<String>(); }").getBytes(StandardCharsets.UTF_8));
+        }
+
+        var statistics = new CompilationStatistics();
+        assertEquals(sources.length, jc.compileClass(new SimpleClassesProvider(), printingListener, statistics, sources).size());
+
+        // The phases of all the units are measured and do not overlap
+        var phases = List.of(statistics.getParseTime(), statistics.getEnterTime(),
+                statistics.getAnalyzeTime(), statistics.getGenerateTime());
+        for (var phase : phases) {
+            assertTrue(phase.toNanos() > 0, phases.toString());
+        }
+        var sum = phases.stream().reduce(Duration.ZERO, Duration::plus);
+        assertTrue(sum.compareTo(statistics.getTotalTime()) <= 0, sum + " > " + statistics.getTotalTime());
+    }
+
+    @Test
+    public void testReleasedBytecode() throws Exception {
+        setProperties();
+
+        var jc = new CompilerJavac();
+        var dependency = new IdentifiedSource(new ClassIdentifier("A"),
+                "public class A { public static class Inner { } }".getBytes(StandardCharsets.UTF_8));
+        var compiled = new SimpleClassesProvider(jc.compileClass(new SimpleClassesProvider(), Optional.empty(), dependency));
+        var source = new IdentifiedSource(new ClassIdentifier("B"),
+                "public class B { A a = new A(); A.Inner field = new A.Inner(); }".getBytes(StandardCharsets.UTF_8));
+
+        // Every request returns a new copy so that only the compiler retains it
+        var provided = new ArrayList<WeakReference<IdentifiedBytecode>>();
+        var provider = new SimpleClassesProvider() {
+            @Override
+            public Collection<IdentifiedBytecode> getClass(ClassIdentifier... names) {
+                var result = new ArrayList<IdentifiedBytecode>();
+                for (var bytecode : compiled.getClass(names)) {
+                    var copy = new IdentifiedBytecode(bytecode.getClassIdentifier(), bytecode.getFile());
+                    provided.add(new WeakReference<>(copy));
+                    result.add(copy);
+                }
+                return result;
+            }
+
+            @Override
+            public List<String> getClassPathListing() {
+                return compiled.getClassPathListing();
+            }
+        };
+
+        // Once the compiler opens a class, the bytecode of the classes it
+        // opened before is no longer reachable
+        var opened = new ArrayList<String>();
+        var retained = new ArrayList<String>();
+        try (var session = jc.openJavacSession(provider)) {
+            session.compileClass(printingListener, () -> false, bytecode -> {
+                var name = bytecode.getClassIdentifier().getFullName();
+                for (int i = 0; i != 10 && provided.stream().anyMatch(reference -> isRetained(reference, opened)); ++i) {
+                    System.gc();
+                }
+                provided.stream().filter(reference -> isRetained(reference, opened))
+                        .forEach(reference -> retained.add(reference.get().getClassIdentifier().getFullName()));
+                opened.add(name);
+            }, source);
+        }
+        assertEquals(2, opened.size(), opened.toString());
+        assertTrue(retained.isEmpty(), retained.toString());
+    }
+
+    private static boolean isRetained(WeakReference<IdentifiedBytecode> reference, List<String> opened) {
+        var bytecode = reference.get();
+        return bytecode != null && opened.contains(bytecode.getClassIdentifier().getFullName());
+    }
 }
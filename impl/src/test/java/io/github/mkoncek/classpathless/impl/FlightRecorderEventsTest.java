@@ -0,0 +1,105 @@
+/*-
+ * Copyright (c) 2021 Marián Konček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.mkoncek.classpathless.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.github.mkoncek.classpathless.api.ClassIdentifier;
+import io.github.mkoncek.classpathless.api.IdentifiedBytecode;
+import io.github.mkoncek.classpathless.api.IdentifiedSource;
+import io.github.mkoncek.classpathless.helpers.SimpleClassesProvider;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordingFile;
+
+public class FlightRecorderEventsTest {
+    @Test
+    void testEvents(@TempDir Path directory) throws Exception {
+        var jc = new CompilerJavac();
+        var dependency = new IdentifiedSource(new ClassIdentifier("A"),
+                "public class A { }".getBytes(StandardCharsets.UTF_8));
+        var bytecode = new ArrayList<>(jc.compileClass(new SimpleClassesProvider(), Optional.empty(), dependency));
+        var source = new IdentifiedSource(new ClassIdentifier("B"),
+                "public class B extends A { }".getBytes(StandardCharsets.UTF_8));
+        // The dependencies are scanned in the previous bytecode of the source
+        bytecode.addAll(jc.compileClass(new SimpleClassesProvider(bytecode), Optional.empty(), source));
+        var provider = new SimpleClassesProvider(bytecode);
+
+        var file = directory.resolve("recording.jfr");
+        try (var recording = new Recording()) {
+            recording.enable("io.github.mkoncek.classpathless.Compilation");
+            recording.enable("io.github.mkoncek.classpathless.ProviderRequest");
+            recording.enable("io.github.mkoncek.classpathless.List");
+            recording.enable("io.github.mkoncek.classpathless.DependencyPhase");
+            recording.start();
+            jc.compileClass(provider, Optional.empty(), source);
+            recording.stop();
+            recording.dump(file);
+        }
+
+        var names = new TreeSet<String>();
+        var compilation = Duration.ZERO;
+        var phases = Duration.ZERO;
+        var listed = new TreeSet<String>();
+        var found = new TreeSet<String>();
+        long bytes = 0;
+        for (var event : RecordingFile.readAllEvents(file)) {
+            names.add(event.getEventType().getName());
+            assertFalse(event.getDuration().isNegative(), event.toString());
+            if (event.getEventType().getName().equals("io.github.mkoncek.classpathless.Compilation")) {
+                assertEquals("B", event.getString("sources"));
+                assertTrue(event.getBoolean("succeeded"));
+                compilation = event.getDuration();
+            } else if (event.getEventType().getName().equals("io.github.mkoncek.classpathless.DependencyPhase")) {
+                phases = phases.plus(event.getDuration());
+                if (!event.getString("foundClassNames").isEmpty()) {
+                    found.addAll(List.of(event.getString("foundClassNames").split(",")));
+                }
+                bytes += event.getLong("bytes");
+            } else if (event.getEventType().getName().equals("io.github.mkoncek.classpathless.List")) {
+                if (!event.getString("classNames").isEmpty()) {
+                    listed.addAll(List.of(event.getString("classNames").split(",")));
+                }
+            }
+        }
+        // The phases of the dependency scan are part of the compilation
+        assertTrue(compilation.compareTo(Duration.ZERO) > 0);
+        assertTrue(phases.compareTo(compilation) <= 0, phases + " > " + compilation);
+        // Both A and B are read, B as the initial class and A as its superclass
+        assertEquals(Set.of("A", "B"), found);
+        // The phases read the bytecode of B repeatedly
+        long size = bytecode.stream().mapToLong(IdentifiedBytecode::getSize).sum();
+        assertTrue(bytes >= size, bytes + " < " + size);
+        assertTrue(listed.contains("A"), listed.toString());
+        assertTrue(names.contains("io.github.mkoncek.classpathless.Compilation"), names.toString());
+        assertTrue(names.contains("io.github.mkoncek.classpathless.ProviderRequest"), names.toString());
+        assertTrue(names.contains("io.github.mkoncek.classpathless.List"), names.toString());
+        assertTrue(names.contains("io.github.mkoncek.classpathless.DependencyPhase"), names.toString());
+    }
+}
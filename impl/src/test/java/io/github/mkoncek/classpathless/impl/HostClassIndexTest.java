@@ -0,0 +1,91 @@
+/*-
+ * Copyright (c) 2021 Marián Konček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.mkoncek.classpathless.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class HostClassIndexTest {
+    @Test
+    void testList() {
+        var index = HostClassIndex.getInstance();
+
+        var lang = index.list("java.base", "java.lang", false);
+        assertTrue(lang.contains("java.lang.Object"));
+        assertTrue(lang.contains("java.lang.Thread$State"));
+        assertFalse(lang.contains("java.lang.reflect.Method"));
+        assertFalse(lang.contains("java.lang.module-info"));
+
+        var recursive = index.list("java.base", "java.lang", true);
+        assertTrue(recursive.contains("java.lang.Object"));
+        assertTrue(recursive.contains("java.lang.reflect.Method"));
+        assertFalse(recursive.contains("java.langx.Object"));
+
+        assertTrue(index.list("java.base", "java.lang.nonexistent", false).isEmpty());
+    }
+
+    @Test
+    void testSaveLoad(@TempDir Path directory) throws IOException {
+        var index = HostClassIndex.getInstance().build(ForkJoinPool.commonPool());
+        assertTrue(index.size() > 0);
+
+        var file = directory.resolve("host-classes");
+        index.save(file);
+        assertTrue(HostClassIndex.load(file));
+        assertEquals(index.size(), HostClassIndex.getInstance().size());
+
+        var foreign = directory.resolve("foreign");
+        try (var os = new DataOutputStream(Files.newOutputStream(foreign))) {
+            os.writeUTF("1:/nonexistent");
+            os.writeInt(0);
+        }
+        assertFalse(HostClassIndex.load(foreign));
+    }
+
+    @Test
+    void testConcurrentSave(@TempDir Path directory) throws IOException {
+        var index = HostClassIndex.getInstance().build(ForkJoinPool.commonPool());
+        var file = directory.resolve("host-classes");
+
+        CompletableFuture.allOf(IntStream.range(0, 4).mapToObj(i -> CompletableFuture.runAsync(() -> {
+            try {
+                index.save(file);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        })).toArray(CompletableFuture[]::new)).join();
+
+        assertTrue(HostClassIndex.load(file));
+        try (var files = Files.list(directory)) {
+            assertEquals(List.of(file), files.collect(Collectors.toList()));
+        }
+    }
+}
@@ -17,6 +17,7 @@ package io.github.mkoncek.classpathless.impl;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
 
 import java.io.IOException;
 import java.util.Arrays;
@@ -99,4 +100,20 @@ public class InMemoryFileManagerTest {
             assertFalse(it.hasNext());
         }
     }
+
+    @Test
+    void testListMemoized() throws IOException {
+        var fm = initFM(Arrays.asList("a.a", "a.b.a"));
+
+        var first = fm.list(StandardLocation.CLASS_PATH, "a", Set.of(Kind.CLASS), true);
+        assertSame(first, fm.list(StandardLocation.CLASS_PATH, "a", Set.of(Kind.CLASS), true));
+        assertFalse(fm.list(StandardLocation.CLASS_PATH, "a.c", Set.of(Kind.CLASS), true).iterator().hasNext());
+
+        fm.setAvailableClasses(Arrays.asList("a.a", "a.b.a", "a.b.b"));
+        var it = fm.list(StandardLocation.CLASS_PATH, "a", Set.of(Kind.CLASS), true).iterator();
+        assertEquals("/a.a", it.next().getName());
+        assertEquals("/a.b.a", it.next().getName());
+        assertEquals("/a.b.b", it.next().getName());
+        assertFalse(it.hasNext());
+    }
 }
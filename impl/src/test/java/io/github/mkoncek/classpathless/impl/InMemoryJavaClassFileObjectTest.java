@@ -17,15 +17,24 @@ package io.github.mkoncek.classpathless.impl;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
 
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.List;
 
 import org.junit.jupiter.api.Test;
 
+import io.github.mkoncek.classpathless.api.ClassIdentifier;
+import io.github.mkoncek.classpathless.api.ClassesProvider;
+import io.github.mkoncek.classpathless.api.IdentifiedBytecode;
+import io.github.mkoncek.classpathless.helpers.SimpleClassesProvider;
+
 public class InMemoryJavaClassFileObjectTest {
     private static final SystemJavac javac = new SystemJavac();
 
@@ -57,4 +66,52 @@ public class InMemoryJavaClassFileObjectTest {
             throw new UncheckedIOException(ex);
         }
     }
+
+    @Test
+    void testBufferContent() throws IOException {
+        var content = new byte[] {(byte) 0xca, (byte) 0xfe, (byte) 0xba, (byte) 0xbe, 0, 0, 0, 55};
+        var buffer = ByteBuffer.allocateDirect(content.length + 2);
+        buffer.put((byte) 1).put(content).put((byte) 2);
+        buffer.position(1).limit(1 + content.length);
+
+        var bytecode = new IdentifiedBytecode(new ClassIdentifier("Hello"), buffer);
+        assertEquals(content.length, bytecode.getSize());
+        assertArrayEquals(content, bytecode.getFile());
+        // The copy is only created once
+        assertSame(bytecode.getFile(), bytecode.getFile());
+
+        var obj = new InMemoryJavaClassFileObject("Hello", new SimpleClassesProvider(List.of(bytecode)));
+        assertArrayEquals(content, obj.openInputStream().readAllBytes());
+        assertArrayEquals(content, obj.openInputStream().readAllBytes());
+    }
+
+    @Test
+    void testReleaseOnClose() throws IOException {
+        var content = new byte[] {(byte) 0xca, (byte) 0xfe, (byte) 0xba, (byte) 0xbe};
+        var requests = new int[] {0};
+        var provider = new ClassesProvider() {
+            @Override
+            public Collection<IdentifiedBytecode> getClass(ClassIdentifier... names) {
+                ++requests[0];
+                return List.of(new IdentifiedBytecode(names[0], content));
+            }
+
+            @Override
+            public List<String> getClassPathListing() {
+                return List.of();
+            }
+        };
+
+        var obj = new InMemoryJavaClassFileObject("Hello", provider);
+        try (var is = obj.openInputStream()) {
+            assertArrayEquals(content, is.readAllBytes());
+        }
+        assertEquals(1, requests[0]);
+
+        // The bytecode was released, it is requested again
+        try (var is = obj.openInputStream()) {
+            assertArrayEquals(content, is.readAllBytes());
+        }
+        assertEquals(2, requests[0]);
+    }
 }
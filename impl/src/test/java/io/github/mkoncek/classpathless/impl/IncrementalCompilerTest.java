@@ -0,0 +1,160 @@
+/*-
+ * Copyright (c) 2021 Marián Konček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.mkoncek.classpathless.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+import io.github.mkoncek.classpathless.api.ClassIdentifier;
+import io.github.mkoncek.classpathless.api.ClasspathlessCompiler;
+import io.github.mkoncek.classpathless.api.IdentifiedBytecode;
+import io.github.mkoncek.classpathless.api.IdentifiedSource;
+import io.github.mkoncek.classpathless.helpers.SimpleClassesProvider;
+import io.github.mkoncek.classpathless.util.BytecodeExtractor;
+
+public class IncrementalCompilerTest {
+    private static IdentifiedSource source(String name, String content) {
+        return new IdentifiedSource(new ClassIdentifier(name), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static byte[] bytecode(Collection<IdentifiedBytecode> result, String name) {
+        return result.stream().filter(bytecode -> bytecode.getClassIdentifier().getFullName().equals(name))
+                .findFirst().orElseThrow().getFile();
+    }
+
+    private static void checkConstants(ClasspathlessCompiler javac, Set<String> recompiled) {
+        var provider = new SimpleClassesProvider();
+        var compiler = new IncrementalCompiler(javac);
+
+        var a = source("p.A", "package p; public class A { public static final int X = 1; }");
+        var b = source("q.B", "package q; import p.A; public class B { public static final int Y = A.X + 1; }");
+        var c = source("q.C", "package q; public class C { }");
+
+        var result = compiler.compileClass(provider, Optional.empty(), a, b, c);
+        // The constant is inlined, the bytecode does not reference its class
+        assertFalse(BytecodeExtractor.extractTypenames(bytecode(result, "q.B")).contains("p.A"));
+        assertEquals(Set.of("Y I 2"), BytecodeExtractor.extractConstants(bytecode(result, "q.B")));
+
+        a = source("p.A", "package p; public class A { public static final int X = 5; }");
+        result = compiler.compileClass(provider, Optional.empty(), a, b, c);
+        assertEquals(recompiled, compiler.getLastRecompiled());
+        assertEquals(Set.of("Y I 6"), BytecodeExtractor.extractConstants(bytecode(result, "q.B")));
+    }
+
+    @Test
+    void testRecompilation() {
+        var provider = new SimpleClassesProvider();
+        var compiler = new IncrementalCompiler(new CompilerJavac());
+
+        var a = source("A", "public class A { public static int value() { return 1; } }");
+        var b = source("B", "public class B { int field = A.value(); class Inner { } }");
+        var c = source("C", "public class C { }");
+
+        var result = compiler.compileClass(provider, Optional.empty(), a, b, c);
+        assertEquals(Set.of("A", "B", "C"), compiler.getLastRecompiled());
+        assertEquals(Set.of("A", "B", "B$Inner", "C"), result.stream()
+                .map(bytecode -> bytecode.getClassIdentifier().getFullName()).collect(Collectors.toSet()));
+
+        compiler.compileClass(provider, Optional.empty(), a, b, c);
+        assertEquals(Set.of(), compiler.getLastRecompiled());
+
+        // The interface does not change
+        a = source("A", "public class A { public static int value() { return 2; } }");
+        compiler.compileClass(provider, Optional.empty(), a, b, c);
+        assertEquals(Set.of("A"), compiler.getLastRecompiled());
+
+        a = source("A", "public class A { public static int value() { return 2; } public static int other() { return 3; } }");
+        compiler.compileClass(provider, Optional.empty(), a, b, c);
+        assertEquals(Set.of("A", "B"), compiler.getLastRecompiled());
+
+        result = compiler.compileClass(provider, Optional.empty(), a, b);
+        assertEquals(Set.of(), compiler.getLastRecompiled());
+        assertEquals(Set.of("A", "B", "B$Inner"), result.stream()
+                .map(bytecode -> bytecode.getClassIdentifier().getFullName()).collect(Collectors.toSet()));
+
+        compiler.reset();
+        compiler.compileClass(provider, Optional.empty(), a, b);
+        assertEquals(Set.of("A", "B"), compiler.getLastRecompiled());
+    }
+
+    @Test
+    void testConstants() {
+        checkConstants(new CompilerJavac(), Set.of("p.A", "q.B"));
+    }
+
+    @Test
+    void testConstantsUntracked() {
+        // A compiler other than CompilerJavac does not record the classes
+        // whose constants are read, the constant of B changes as well
+        var javac = new CompilerJavac();
+        checkConstants((provider, listener, sources) -> javac.compileClass(provider, listener, sources),
+                Set.of("p.A", "q.B", "q.C"));
+    }
+
+    @Test
+    void testAnnotationValues() {
+        var provider = new SimpleClassesProvider();
+        var compiler = new IncrementalCompiler(new CompilerJavac());
+
+        var ann = source("Ann", "public @interface Ann { int value() default 1; }");
+        var a = source("A", "public class A { @Ann(1) public static int value() { return 1; } }");
+        var b = source("B", "public class B { int field = A.value(); }");
+        var c = source("C", "@Ann public class C { }");
+
+        var result = compiler.compileClass(provider, Optional.empty(), ann, a, b, c);
+        assertEquals(Set.of("Ann", "A", "B", "C"), compiler.getLastRecompiled());
+
+        // The value of a method annotation
+        a = source("A", "public class A { @Ann(2) public static int value() { return 1; } }");
+        result = compiler.compileClass(provider, Optional.empty(), ann, a, b, c);
+        assertEquals(Set.of("A", "B"), compiler.getLastRecompiled());
+        assertTrue(BytecodeExtractor.extractApi(bytecode(result, "A")).stream().anyMatch(element -> element.contains("Integer:2")));
+
+        // The default value of an annotation element
+        ann = source("Ann", "public @interface Ann { int value() default 2; }");
+        compiler.compileClass(provider, Optional.empty(), ann, a, b, c);
+        assertEquals(Set.of("Ann", "A", "C"), compiler.getLastRecompiled());
+    }
+
+    @Test
+    void testSecondaryClasses() {
+        var provider = new SimpleClassesProvider();
+        var compiler = new IncrementalCompiler(new CompilerJavac());
+
+        var a = source("p.A", "package p; public class A { }");
+        var z = source("p.Z", "package p; public class Z { } class S { }");
+        var u = source("p.U", "package p; public class U { S field; }");
+
+        compiler.compileClass(provider, Optional.empty(), a, z, u);
+
+        // The secondary class is attributed to its source rather than to the
+        // first source of the package
+        z = source("p.Z", "package p; public class Z { } class S { int value; }");
+        var result = compiler.compileClass(provider, Optional.empty(), a, z, u);
+        assertEquals(Set.of("p.U", "p.Z"), compiler.getLastRecompiled());
+        assertEquals(1, result.stream().filter(bytecode -> bytecode.getClassIdentifier().getFullName().equals("p.S")).count());
+        assertTrue(BytecodeExtractor.extractFields(bytecode(result, "p.S")).contains("value"));
+    }
+}
@@ -0,0 +1,122 @@
+/*-
+ * Copyright (c) 2021 Marián Konček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.mkoncek.classpathless.impl;
+
+import static io.github.mkoncek.classpathless.impl.BytecodeAssertions.assertSameBytecode;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+import io.github.mkoncek.classpathless.api.ClassIdentifier;
+import io.github.mkoncek.classpathless.api.ClassesProvider;
+import io.github.mkoncek.classpathless.api.ClasspathlessCompiler.Arguments;
+import io.github.mkoncek.classpathless.api.IdentifiedBytecode;
+import io.github.mkoncek.classpathless.api.IdentifiedSource;
+import io.github.mkoncek.classpathless.api.MessagesListener;
+import io.github.mkoncek.classpathless.api.PackageListingClassesProvider;
+import io.github.mkoncek.classpathless.helpers.SimpleClassesProvider;
+
+public class LazyDependenciesTest {
+    private static final IdentifiedSource sourceA = new IdentifiedSource(new ClassIdentifier("A"),
+            "public class A { public static int value() { return 1; } }".getBytes(StandardCharsets.UTF_8));
+    private static final IdentifiedSource sourceB = new IdentifiedSource(new ClassIdentifier("B"),
+            "public class B { int field = A.value(); }".getBytes(StandardCharsets.UTF_8));
+
+    private static class CountingProvider implements PackageListingClassesProvider {
+        private ClassesProvider delegate;
+        private List<String> listing;
+        private int requestedClasses = 0;
+        private int listings = 0;
+        private List<String> packageListings = new ArrayList<>();
+
+        private CountingProvider(ClassesProvider delegate, List<String> listing) {
+            this.delegate = delegate;
+            this.listing = listing;
+        }
+
+        @Override
+        public Collection<IdentifiedBytecode> getClass(ClassIdentifier... names) {
+            requestedClasses += names.length;
+            return delegate.getClass(names);
+        }
+
+        @Override
+        public List<String> getClassPathListing() {
+            ++listings;
+            return listing;
+        }
+
+        @Override
+        public List<String> getPackageListing(String packageName) {
+            packageListings.add(packageName);
+            return listing.stream().filter(name -> packageName.equals(name.substring(0, Math.max(0, name.lastIndexOf('.')))))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static SimpleClassesProvider compiledProvider() {
+        var jc = new CompilerJavac();
+        var bytecode = new ArrayList<IdentifiedBytecode>(jc.compileClass(new SimpleClassesProvider(), Optional.empty(), sourceA));
+        bytecode.addAll(jc.compileClass(new SimpleClassesProvider(bytecode), Optional.empty(), sourceB));
+        return new SimpleClassesProvider(bytecode);
+    }
+
+    @Test
+    void testLazy() {
+        var delegate = compiledProvider();
+
+        var eagerProvider = new CountingProvider(delegate, List.of("A", "B"));
+        var expected = new CompilerJavac().compileClass(eagerProvider, Optional.empty(), sourceB);
+
+        var lazyProvider = new CountingProvider(delegate, List.of("A", "B"));
+        var result = new CompilerJavac(new Arguments().lazyDependencies(true))
+                .compileClass(lazyProvider, Optional.empty(), sourceB);
+
+        assertSameBytecode(expected, result);
+        assertEquals(0, lazyProvider.listings);
+        assertEquals(Set.of(""), Set.copyOf(lazyProvider.packageListings));
+        assertTrue(lazyProvider.requestedClasses < eagerProvider.requestedClasses);
+    }
+
+    @Test
+    void testFallback() {
+        // The listing does not contain A, it is only found by the dependency scan
+        var provider = new CountingProvider(compiledProvider(), List.of("B"));
+        var messages = new ArrayList<String>();
+        MessagesListener listener = (level, message) -> {
+            if (level.intValue() >= Level.WARNING.intValue()) {
+                messages.add(message);
+            }
+        };
+
+        var result = new CompilerJavac(new Arguments().lazyDependencies(true))
+                .compileClass(provider, Optional.of(listener), sourceB);
+
+        assertEquals(1, result.size());
+        assertEquals(1, provider.listings);
+        assertTrue(messages.isEmpty(), messages.toString());
+    }
+}
@@ -0,0 +1,154 @@
+/*-
+ * Copyright (c) 2021 Marián Konček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.mkoncek.classpathless.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+
+import org.junit.jupiter.api.Test;
+
+public class LoggingSwitchTest {
+    private static final Supplier<String> failingSupplier = () -> {
+        throw new AssertionError("The message is not wanted");
+    };
+
+    @Test
+    public void testListenerLevel() throws Exception {
+        var messages = new ArrayList<String>();
+        System.setProperty("io.github.mkoncek.cplc.log-to-provider", "warning");
+        try (var loggingSwitch = new LoggingSwitch()) {
+            loggingSwitch.setMessagesListener((level, message) -> messages.add(message));
+
+            assertFalse(loggingSwitch.isLoggable(Level.INFO));
+            assertTrue(loggingSwitch.isLoggable(Level.WARNING));
+            assertFalse(loggingSwitch.isTracing());
+
+            loggingSwitch.logln(Level.INFO, "Ignored {0}", "message");
+            loggingSwitch.logln(Level.INFO, failingSupplier);
+            loggingSwitch.logln(Level.WARNING, "Passed {0} {1}", "formatted", "message");
+            loggingSwitch.logln(Level.SEVERE, () -> "Passed supplied message");
+        } finally {
+            System.clearProperty("io.github.mkoncek.cplc.log-to-provider");
+        }
+
+        assertEquals(List.of("Passed formatted message" + System.lineSeparator(), "Passed supplied message" + System.lineSeparator()), messages);
+    }
+
+    @Test
+    public void testListenerPresence() throws Exception {
+        var messages = new ArrayList<String>();
+        System.setProperty("io.github.mkoncek.cplc.log-to-provider", "true");
+        try (var loggingSwitch = new LoggingSwitch()) {
+            loggingSwitch.setMessagesListener((level, message) -> messages.add(message));
+            assertTrue(loggingSwitch.isLoggable(Level.FINEST));
+            loggingSwitch.logln(Level.FINE, "Passed {0}", "message");
+        } finally {
+            System.clearProperty("io.github.mkoncek.cplc.log-to-provider");
+        }
+
+        assertEquals(List.of("Passed message" + System.lineSeparator()), messages);
+    }
+
+    @Test
+    public void testSharedSink() throws Exception {
+        var file = Files.createTempFile("cplc-logging", ".log");
+        try {
+            System.setProperty("io.github.mkoncek.cplc.logging", file.toString());
+            var switches = new ArrayList<LoggingSwitch>();
+            for (int i = 0; i != 4; ++i) {
+                switches.add(new LoggingSwitch());
+                switches.get(i).setLogLevel(Level.INFO);
+            }
+            System.clearProperty("io.github.mkoncek.cplc.logging");
+
+            CompletableFuture.allOf(switches.stream().map(loggingSwitch -> CompletableFuture.runAsync(() -> {
+                for (int i = 0; i != 100; ++i) {
+                    loggingSwitch.logln(Level.INFO, "Line {0}", i);
+                    loggingSwitch.logln(Level.FINE, "Ignored line {0}", i);
+                }
+            })).toArray(CompletableFuture[]::new)).join();
+            for (var loggingSwitch : switches) {
+                loggingSwitch.close();
+            }
+
+            assertTrue(LogSink.getInstance(file.toString()).flush(0));
+            var lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+            assertEquals(400, lines.size());
+            var tags = new TreeSet<String>();
+            for (var line : lines) {
+                assertTrue(line.startsWith("[CPLC.LOG] #"), line);
+                assertTrue(line.contains(" Line "), line);
+                tags.add(line.substring(0, line.indexOf(" Line ")));
+            }
+            assertEquals(4, tags.size());
+        } finally {
+            System.clearProperty("io.github.mkoncek.cplc.logging");
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        try (var loggingSwitch = new LoggingSwitch.Null()) {
+            loggingSwitch.setLogLevel(Level.ALL);
+            loggingSwitch.setTracing(true);
+            // Nobody reads the output
+            assertFalse(loggingSwitch.isLoggable(Level.SEVERE));
+            assertFalse(loggingSwitch.isTracing());
+            loggingSwitch.logln(Level.SEVERE, failingSupplier);
+        }
+    }
+
+    @Test
+    public void testDisabledAllocatesNothing() {
+        var loggingSwitch = new LoggingSwitch.Null();
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        var object = new Object();
+        var name = "name";
+
+        Runnable calls = () -> {
+            for (int i = 0; i != 100_000; ++i) {
+                loggingSwitch.logln(Level.FINE, "Message");
+                loggingSwitch.logln(Level.FINE, "Message {0}", name);
+                loggingSwitch.logln(Level.FINE, "Message {0} {1} {2}", name, object, name);
+                loggingSwitch.logln(Level.FINE, failingSupplier);
+                loggingSwitch.trace(object, "method", name, object, name, Boolean.TRUE);
+                loggingSwitch.traceThis(object, name, "method");
+                loggingSwitch.trace(object);
+            }
+        };
+
+        long thread = Thread.currentThread().getId();
+        calls.run();
+        long before = threads.getThreadAllocatedBytes(thread);
+        calls.run();
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+        // A single array of arguments per call would take megabytes
+        assertTrue(allocated < 10_000, "Allocated " + allocated + " bytes");
+    }
+}
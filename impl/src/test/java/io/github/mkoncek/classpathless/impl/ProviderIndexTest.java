@@ -0,0 +1,67 @@
+/*-
+ * Copyright (c) 2021 Marián Konček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.mkoncek.classpathless.impl;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Optional;
+
+import org.junit.jupiter.api.Test;
+
+import io.github.mkoncek.classpathless.api.ClassIdentifier;
+import io.github.mkoncek.classpathless.api.IdentifiedBytecode;
+import io.github.mkoncek.classpathless.api.IdentifiedSource;
+import io.github.mkoncek.classpathless.helpers.SimpleClassesProvider;
+
+public class ProviderIndexTest {
+    @Test
+    public void testUnrequestedClasses() throws Exception {
+        var source = new IdentifiedSource(new ClassIdentifier("A"),
+                "public class A { } class S { D field; }".getBytes(StandardCharsets.UTF_8));
+        var dependency = new IdentifiedSource(new ClassIdentifier("D"),
+                "public class D { }".getBytes(StandardCharsets.UTF_8));
+        var compiled = new SimpleClassesProvider(new CompilerJavac().compileClass(new SimpleClassesProvider(),
+                Optional.empty(), source, dependency));
+
+        // The secondary class is returned together with the batch of the
+        // classes of the sources
+        var provider = new SimpleClassesProvider() {
+            private boolean first = true;
+
+            @Override
+            public Collection<IdentifiedBytecode> getClass(ClassIdentifier... names) {
+                var result = new ArrayList<>(compiled.getClass(names));
+                if (first) {
+                    first = false;
+                    result.addAll(compiled.getClass(new ClassIdentifier("S")));
+                }
+                return result;
+            }
+        };
+
+        try (var loggingSwitch = new LoggingSwitch()) {
+            var dependencies = new ProviderIndex(provider).getDependencies(loggingSwitch, provider,
+                    new IdentifiedSource[] {source});
+            assertTrue(dependencies.contains("D"), dependencies.toString());
+            assertFalse(new ProviderIndex(compiled).getDependencies(loggingSwitch, compiled,
+                    new IdentifiedSource[] {source}).contains("D"));
+        }
+    }
+}
@@ -16,12 +16,19 @@
 package io.github.mkoncek.classpathless.util;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 import org.objectweb.asm.AnnotationVisitor;
 import org.objectweb.asm.ClassReader;
@@ -30,6 +37,7 @@ import org.objectweb.asm.FieldVisitor;
 import org.objectweb.asm.Handle;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.RecordComponentVisitor;
 import org.objectweb.asm.TypePath;
 
 import io.github.mkoncek.classpathless.api.ClassIdentifier;
@@ -105,12 +113,26 @@ public class BytecodeExtractor {
         return classes;
     }
 
+    /**
+     * @implNote Each level of nesting is obtained from the provider in a
+     * single call.
+     */
     private SortedSet<String> extractNestedClassesFrom(byte[] classFile,
             ClassesProvider classesProvider) {
+        var level = new ArrayList<ClassIdentifier>();
         for (var nestedName : extractDirectNestedClasses(classFile)) {
             if (classes.add(nestedName)) {
-                for (var bytecode : classesProvider.getClass(new ClassIdentifier(nestedName))) {
-                    extractNestedClassesFrom(bytecode.getFile(), classesProvider);
+                level.add(new ClassIdentifier(nestedName));
+            }
+        }
+        while (!level.isEmpty()) {
+            var bytecodes = classesProvider.getClass(level.toArray(new ClassIdentifier[0]));
+            level.clear();
+            for (var bytecode : bytecodes) {
+                for (var nestedName : extractDirectNestedClasses(bytecode.getFile())) {
+                    if (classes.add(nestedName)) {
+                        level.add(new ClassIdentifier(nestedName));
+                    }
                 }
             }
         }
@@ -144,6 +166,27 @@ public class BytecodeExtractor {
         return result;
     }
 
+    /**
+     * Extracts the fields of the provided class which have a constant value.
+     * The compiler inlines such values into the classes which read them.
+     * @param classFile The file to extract the constants from.
+     * @return The set of field names together with their constant values.
+     */
+    public static SortedSet<String> extractConstants(byte[] classFile) {
+        var result = new TreeSet<String>();
+        new ClassReader(classFile).accept(new ClassVisitor(CURRENT_ASM_OPCODE) {
+            @Override
+            public FieldVisitor visitField(int access, String name,
+                    String descriptor, String signature, Object value) {
+                if (value != null) {
+                    result.add(name + " " + descriptor + " " + value);
+                }
+                return null;
+            }
+        }, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        return result;
+    }
+
     /**
      * Extracts all method names of given class. This will not include methods
      * of inner classes nor inherited methods (unless they are overriden).
@@ -163,6 +206,197 @@ public class BytecodeExtractor {
         return result;
     }
 
+    /**
+     * Records an annotation together with its element values, nested
+     * annotations and arrays included, as a single description.
+     */
+    private static class ApiAnnotationVisitor extends AnnotationVisitor {
+        private final Consumer<String> result;
+        private final StringBuilder description;
+        private boolean empty = true;
+
+        private ApiAnnotationVisitor(Consumer<String> result, String prefix) {
+            super(CURRENT_ASM_OPCODE);
+            this.result = result;
+            this.description = new StringBuilder(prefix).append('(');
+        }
+
+        private StringBuilder element(String name) {
+            if (!empty) {
+                description.append(',');
+            }
+            empty = false;
+            return name == null ? description : description.append(name).append('=');
+        }
+
+        @Override
+        public void visit(String name, Object value) {
+            var element = element(name);
+            if (value.getClass().isArray()) {
+                element.append(value.getClass().getComponentType()).append(Arrays.deepToString(new Object[] {value}));
+            } else {
+                element.append(value.getClass().getSimpleName()).append(':').append(value);
+            }
+        }
+
+        @Override
+        public void visitEnum(String name, String descriptor, String value) {
+            element(name).append(descriptor).append('.').append(value);
+        }
+
+        @Override
+        public AnnotationVisitor visitAnnotation(String name, String descriptor) {
+            var element = element(name);
+            return new ApiAnnotationVisitor(element::append, descriptor);
+        }
+
+        @Override
+        public AnnotationVisitor visitArray(String name) {
+            var element = element(name);
+            return new ApiAnnotationVisitor(element::append, "");
+        }
+
+        @Override
+        public void visitEnd() {
+            result.accept(description.append(')').toString());
+        }
+    }
+
+    /**
+     * Extracts the description of the application binary interface of the
+     * class, that is everything other classes may be compiled against. This
+     * includes the class header, inner class, nest, permitted subclass and
+     * record component attributes, all non-private fields and methods
+     * together with the constant values of fields and the default values of
+     * annotation elements, and the annotations of all of them including their
+     * element values. Two class files have the same interface if and only if
+     * the returned sets are equal.
+     * @param classFile The file to extract the interface from.
+     * @return The set of descriptions of the interface elements.
+     */
+    public static SortedSet<String> extractApi(byte[] classFile) {
+        var result = new TreeSet<String>();
+        new ClassReader(classFile).accept(new ClassVisitor(CURRENT_ASM_OPCODE) {
+            @Override
+            public void visit(int version, int access, String name,
+                    String signature, String superName, String[] interfaces) {
+                result.add("class " + access + " " + name + " " + signature + " " + superName
+                        + " " + String.join(",", interfaces));
+            }
+
+            @Override
+            public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+                return new ApiAnnotationVisitor(result::add, "annotation " + visible + " " + descriptor);
+            }
+
+            @Override
+            public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath,
+                    String descriptor, boolean visible) {
+                return new ApiAnnotationVisitor(result::add, "type-annotation " + typeRef + " " + typePath
+                        + " " + visible + " " + descriptor);
+            }
+
+            @Override
+            public void visitNestHost(String nestHost) {
+                result.add("nest-host " + nestHost);
+            }
+
+            @Override
+            public void visitNestMember(String nestMember) {
+                result.add("nest-member " + nestMember);
+            }
+
+            @Override
+            public void visitPermittedSubclass(String permittedSubclass) {
+                result.add("permitted " + permittedSubclass);
+            }
+
+            @Override
+            public void visitInnerClass(String name, String outerName,
+                    String innerName, int access) {
+                result.add("inner " + access + " " + name + " " + outerName + " " + innerName);
+            }
+
+            @Override
+            public RecordComponentVisitor visitRecordComponent(String name, String descriptor, String signature) {
+                var prefix = "record " + name + " " + descriptor + " " + signature;
+                result.add(prefix);
+                return new RecordComponentVisitor(CURRENT_ASM_OPCODE) {
+                    @Override
+                    public AnnotationVisitor visitAnnotation(String annotationDescriptor, boolean visible) {
+                        return new ApiAnnotationVisitor(result::add, prefix + " annotation " + visible + " " + annotationDescriptor);
+                    }
+
+                    @Override
+                    public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath,
+                            String annotationDescriptor, boolean visible) {
+                        return new ApiAnnotationVisitor(result::add, prefix + " type-annotation " + typeRef + " " + typePath
+                                + " " + visible + " " + annotationDescriptor);
+                    }
+                };
+            }
+
+            @Override
+            public FieldVisitor visitField(int access, String name,
+                    String descriptor, String signature, Object value) {
+                if ((access & org.objectweb.asm.Opcodes.ACC_PRIVATE) != 0) {
+                    return null;
+                }
+                var prefix = "field " + access + " " + name + " " + descriptor + " " + signature;
+                result.add(prefix + " " + value);
+                return new FieldVisitor(CURRENT_ASM_OPCODE) {
+                    @Override
+                    public AnnotationVisitor visitAnnotation(String annotationDescriptor, boolean visible) {
+                        return new ApiAnnotationVisitor(result::add, prefix + " annotation " + visible + " " + annotationDescriptor);
+                    }
+
+                    @Override
+                    public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath,
+                            String annotationDescriptor, boolean visible) {
+                        return new ApiAnnotationVisitor(result::add, prefix + " type-annotation " + typeRef + " " + typePath
+                                + " " + visible + " " + annotationDescriptor);
+                    }
+                };
+            }
+
+            @Override
+            public MethodVisitor visitMethod(int access, String name,
+                    String descriptor, String signature, String[] exceptions) {
+                if ((access & org.objectweb.asm.Opcodes.ACC_PRIVATE) != 0) {
+                    return null;
+                }
+                var prefix = "method " + access + " " + name + descriptor + " " + signature;
+                result.add(prefix + " " + (exceptions == null ? "" : String.join(",", exceptions)));
+                return new MethodVisitor(CURRENT_ASM_OPCODE) {
+                    @Override
+                    public AnnotationVisitor visitAnnotationDefault() {
+                        return new ApiAnnotationVisitor(result::add, prefix + " default");
+                    }
+
+                    @Override
+                    public AnnotationVisitor visitAnnotation(String annotationDescriptor, boolean visible) {
+                        return new ApiAnnotationVisitor(result::add, prefix + " annotation " + visible + " " + annotationDescriptor);
+                    }
+
+                    @Override
+                    public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath,
+                            String annotationDescriptor, boolean visible) {
+                        return new ApiAnnotationVisitor(result::add, prefix + " type-annotation " + typeRef + " " + typePath
+                                + " " + visible + " " + annotationDescriptor);
+                    }
+
+                    @Override
+                    public AnnotationVisitor visitParameterAnnotation(int parameter,
+                            String annotationDescriptor, boolean visible) {
+                        return new ApiAnnotationVisitor(result::add, prefix + " parameter " + parameter
+                                + " annotation " + visible + " " + annotationDescriptor);
+                    }
+                };
+            }
+        }, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        return result;
+    }
+
     /**
      * Extracts the names of all directly implemented interfaces, i. e. not transitively.
      * @param classFile The file to extract names from.
@@ -306,50 +540,298 @@ public class BytecodeExtractor {
             IdentifiedBytecode initialClass, ClassesProvider classesProvider,
             Consumer<String> first, Consumer<String> second, Consumer<String> third) {
         var result = new TreeSet<String>();
+        var initialName = initialClass.getClassIdentifier().getFullName();
+        var provider = new CountingClassesProvider(classesProvider);
 
         // First phase: the full group of the initial class
-        for (var newClass : BytecodeExtractor.extractFullClassGroup(initialClass.getFile(), classesProvider)) {
+        var event = new DependencyPhaseEvent();
+        event.begin();
+        for (var newClass : BytecodeExtractor.extractFullClassGroup(initialClass.getFile(), provider)) {
             if (result.add(newClass)) {
                 first.accept(newClass);
+                event.found(newClass);
             }
         }
 
+        event.commit(initialName, 1, initialClass.getSize() + provider.takeBytes());
+
         var referencedClasses = new TreeSet<String>();
 
         // Second phase: directly referenced names
-        for (var className : new ArrayList<>(result)) {
-            for (var bytecode : classesProvider.getClass(new ClassIdentifier(className))) {
-                for (var newClass : BytecodeExtractor.extractTypenames(bytecode.getFile())) {
-                    if (result.add(newClass)) {
-                        second.accept(newClass);
-                    }
-                    referencedClasses.add(newClass);
+        // All the members of the group are obtained in a single call
+        event = new DependencyPhaseEvent();
+        event.begin();
+        for (var bytecode : provider.getClass(result.stream()
+                .map(ClassIdentifier::new).toArray(ClassIdentifier[]::new))) {
+            for (var newClass : BytecodeExtractor.extractTypenames(bytecode.getFile())) {
+                if (result.add(newClass)) {
+                    second.accept(newClass);
+                    event.found(newClass);
                 }
+                referencedClasses.add(newClass);
             }
         }
 
+        event.commit(initialName, 2, provider.takeBytes());
+
         // Third phase: all outer classes of all referenced classes
-        // Start from the longest names to avoid duplicating the traversals
-        for (String className; (className = referencedClasses.pollLast()) != null;) {
-            // Do not read the bytecode of java.lang.Object
-            // This is a workaround to work with DCEVM 11
-            if (className.equals("java.lang.Object")) {
-                continue;
+        // Each round obtains the outer classes found by the previous one in a
+        // single call
+        event = new DependencyPhaseEvent();
+        event.begin();
+        var visited = new TreeSet<String>();
+        while (!referencedClasses.isEmpty()) {
+            var round = new ArrayList<ClassIdentifier>();
+            for (var className : referencedClasses) {
+                // Do not read the bytecode of java.lang.Object
+                // This is a workaround to work with DCEVM 11
+                if (!className.equals("java.lang.Object") && visited.add(className)) {
+                    round.add(new ClassIdentifier(className));
+                }
             }
+            referencedClasses.clear();
 
-            for (var bytecode : classesProvider.getClass(new ClassIdentifier(className))) {
+            if (round.isEmpty()) {
+                break;
+            }
+
+            for (var bytecode : provider.getClass(round.toArray(new ClassIdentifier[0]))) {
                 var outer = BytecodeExtractor.extractOuterClass(bytecode.getFile());
                 if (outer.isPresent()) {
                     String outerName = outer.get();
                     if (result.add(outerName)) {
                         third.accept(outerName);
+                        event.found(outerName);
+                    }
+                    referencedClasses.add(outerName);
+                }
+            }
+        }
+        event.commit(initialName, 3, provider.takeBytes());
+
+        result.remove(initialName);
+
+        return result;
+    }
+
+    /**
+     * Counts the size of the bytecode obtained from the delegate, the phases
+     * of the dependency scan report it in their events.
+     */
+    private static class CountingClassesProvider implements ClassesProvider {
+        private final ClassesProvider delegate;
+        private final LongAdder bytes = new LongAdder();
+
+        private CountingClassesProvider(ClassesProvider delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Collection<IdentifiedBytecode> getClass(ClassIdentifier... names) {
+            var result = delegate.getClass(names);
+            for (var bytecode : result) {
+                if (bytecode != null) {
+                    bytes.add(bytecode.getSize());
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public List<String> getClassPathListing() {
+            return delegate.getClassPathListing();
+        }
+
+        /**
+         * @return The number of bytes obtained since the previous call.
+         */
+        private long takeBytes() {
+            return bytes.sumThenReset();
+        }
+    }
+
+    /**
+     * Obtain the bytecode of each class using the executor.
+     * @return The futures of the bytecode in the same order as the names.
+     */
+    private static List<CompletableFuture<Collection<IdentifiedBytecode>>> fetchAll(
+            Collection<String> classNames, ClassesProvider classesProvider, Executor executor) {
+        var result = new ArrayList<CompletableFuture<Collection<IdentifiedBytecode>>>(classNames.size());
+        for (var className : classNames) {
+            result.add(CompletableFuture.supplyAsync(() -> classesProvider.getClass(new ClassIdentifier(className)), executor));
+        }
+        return result;
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * The same as {@link #extractFullClassGroup(byte[], ClassesProvider)} but
+     * each level of nesting is obtained in parallel.
+     */
+    private static SortedSet<String> extractFullClassGroup(byte[] classFile,
+            ClassesProvider classesProvider, Executor executor) {
+        Optional<String> outermostClass;
+        while ((outermostClass = extractOuterClass(classFile)).isPresent()) {
+            classFile = classesProvider.getClass(new ClassIdentifier(outermostClass.get()))
+                    .iterator().next().getFile();
+        }
+
+        var result = new TreeSet<String>();
+        var level = new ArrayList<String>();
+        for (var nestedName : extractDirectNestedClasses(classFile)) {
+            if (result.add(nestedName)) {
+                level.add(nestedName);
+            }
+        }
+
+        while (!level.isEmpty()) {
+            var futures = fetchAll(level, classesProvider, executor).stream()
+                    .map(future -> future.thenApply(bytecodes -> {
+                        var nested = new TreeSet<String>();
+                        for (var bytecode : bytecodes) {
+                            nested.addAll(extractDirectNestedClasses(bytecode.getFile()));
+                        }
+                        return nested;
+                    })).collect(Collectors.toList());
+            level = new ArrayList<>();
+            for (var future : futures) {
+                for (var nestedName : join(future)) {
+                    if (result.add(nestedName)) {
+                        level.add(nestedName);
+                    }
+                }
+            }
+        }
+
+        new ClassReader(classFile).accept(new ClassVisitor(CURRENT_ASM_OPCODE) {
+            @Override
+            public void visit(int version, int access, String name,
+                    String signature, String superName, String[] interfaces) {
+                result.add(dot(name));
+            }
+        }, 0);
+        return result;
+    }
+
+    /**
+     * The same as {@link #extractDependencies(IdentifiedBytecode, ClassesProvider)}
+     * but the bytecode is obtained and parsed in parallel.
+     * @param initialClass The bytecode the dependencies of which are requested.
+     * @param classesProvider ClassesProvider of class dependencies, it must be
+     * thread-safe.
+     * @param executor The executor used to obtain and parse the bytecode.
+     * @return A collection of all class names that are required for compilation.
+     */
+    public static Collection<String> extractDependencies(
+            IdentifiedBytecode initialClass, ClassesProvider classesProvider, Executor executor) {
+        final Consumer<String> empty = s -> {};
+        return extractDependenciesImpl(initialClass, classesProvider, executor, empty, empty, empty);
+    }
+
+    /**
+     * This is an implementation method. The result is the same as the result
+     * of the serial version. The consumers are invoked on the calling thread.
+     * @param initialClass The bytecode the dependencies of which are requested.
+     * @param classesProvider ClassesProvider of class dependencies.
+     * @param executor The executor used to obtain and parse the bytecode.
+     * @param first The consumer of a class name in case a class is added in the first phase.
+     * @param second The consumer of a class name in case a class is added in the second phase.
+     * @param third The consumer of a class name in case a class is added in the third phase.
+     * @return A collection of all class names that are required for compilation.
+     */
+    static Collection<String> extractDependenciesImpl(
+            IdentifiedBytecode initialClass, ClassesProvider classesProvider, Executor executor,
+            Consumer<String> first, Consumer<String> second, Consumer<String> third) {
+        var result = new TreeSet<String>();
+        var initialName = initialClass.getClassIdentifier().getFullName();
+        var provider = new CountingClassesProvider(classesProvider);
+
+        // First phase: the full group of the initial class
+        var event = new DependencyPhaseEvent();
+        event.begin();
+        for (var newClass : extractFullClassGroup(initialClass.getFile(), provider, executor)) {
+            if (result.add(newClass)) {
+                first.accept(newClass);
+                event.found(newClass);
+            }
+        }
+
+        event.commit(initialName, 1, initialClass.getSize() + provider.takeBytes());
+
+        var referencedClasses = new TreeSet<String>();
+
+        // Second phase: directly referenced names
+        event = new DependencyPhaseEvent();
+        event.begin();
+        var typenames = fetchAll(new ArrayList<>(result), provider, executor).stream()
+                .map(future -> future.thenApply(bytecodes -> {
+                    var names = new ArrayList<SortedSet<String>>();
+                    for (var bytecode : bytecodes) {
+                        names.add(extractTypenames(bytecode.getFile()));
+                    }
+                    return names;
+                })).collect(Collectors.toList());
+        for (var future : typenames) {
+            for (var names : join(future)) {
+                for (var newClass : names) {
+                    if (result.add(newClass)) {
+                        second.accept(newClass);
+                        event.found(newClass);
+                    }
+                    referencedClasses.add(newClass);
+                }
+            }
+        }
+
+        event.commit(initialName, 2, provider.takeBytes());
+
+        // Third phase: all outer classes of all referenced classes
+        // Each round handles the outer classes found by the previous one
+        event = new DependencyPhaseEvent();
+        event.begin();
+        var visited = new TreeSet<String>();
+        while (!referencedClasses.isEmpty()) {
+            var round = new ArrayList<String>();
+            for (var className : referencedClasses.descendingSet()) {
+                // Do not read the bytecode of java.lang.Object
+                // This is a workaround to work with DCEVM 11
+                if (!className.equals("java.lang.Object") && visited.add(className)) {
+                    round.add(className);
+                }
+            }
+            referencedClasses.clear();
+
+            var outers = fetchAll(round, provider, executor).stream()
+                    .map(future -> future.thenApply(bytecodes -> {
+                        var names = new ArrayList<String>();
+                        for (var bytecode : bytecodes) {
+                            extractOuterClass(bytecode.getFile()).ifPresent(names::add);
+                        }
+                        return names;
+                    })).collect(Collectors.toList());
+            for (var future : outers) {
+                for (var outerName : join(future)) {
+                    if (result.add(outerName)) {
+                        third.accept(outerName);
+                        event.found(outerName);
                     }
                     referencedClasses.add(outerName);
                 }
             }
         }
+        event.commit(initialName, 3, provider.takeBytes());
 
-        result.remove(initialClass.getClassIdentifier().getFullName());
+        result.remove(initialName);
 
         return result;
     }
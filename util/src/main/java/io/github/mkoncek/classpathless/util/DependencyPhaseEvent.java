@@ -0,0 +1,83 @@
+/*-
+ * Copyright (c) 2021 Marián Konček
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.mkoncek.classpathless.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A JFR event of a single phase of the dependency scan of a class.
+ */
+@SuppressFBWarnings(value = {"URF_UNREAD_FIELD"}, justification = "the fields are read by JFR")
+@Name("io.github.mkoncek.classpathless.DependencyPhase")
+@Label("Dependency Scan Phase")
+@Category({"Classpathless Compiler"})
+@Description("A phase of the extraction of the dependencies of a class")
+class DependencyPhaseEvent extends Event {
+    @Label("Class Name")
+    String className;
+
+    @Label("Phase")
+    @Description("1 for the class group, 2 for the referenced names, 3 for the outer classes")
+    int phase;
+
+    @Label("Found Classes")
+    @Description("The number of class names added by the phase")
+    int foundClasses;
+
+    @Label("Found Class Names")
+    @Description("The class names added by the phase")
+    String foundClassNames;
+
+    @Label("Bytes")
+    @Description("The size of the bytecode read by the phase")
+    @DataAmount
+    long bytes;
+
+    private transient List<String> found = new ArrayList<>();
+
+    /**
+     * Record a class name added by the phase.
+     */
+    void found(String className) {
+        if (isEnabled()) {
+            found.add(className);
+        }
+    }
+
+    /**
+     * Commit the event if it is enabled.
+     */
+    void commit(String className, int phase, long bytes) {
+        end();
+        if (shouldCommit()) {
+            this.className = className;
+            this.phase = phase;
+            this.foundClasses = found.size();
+            this.foundClassNames = String.join(",", found);
+            this.bytes = bytes;
+            commit();
+        }
+    }
+}
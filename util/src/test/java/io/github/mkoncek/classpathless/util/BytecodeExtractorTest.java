@@ -15,6 +15,7 @@
  */
 package io.github.mkoncek.classpathless.util;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -25,6 +26,8 @@ import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
 import java.util.function.BiConsumer;
 
 import org.junit.jupiter.api.Disabled;
@@ -476,6 +479,85 @@ public class BytecodeExtractorTest {
         }
     }
 
+    /**
+     * Provides the test classes as well as the host system classes, missing
+     * classes are not returned.
+     */
+    private static class ResourceProvider implements ClassesProvider {
+        @Override
+        public Collection<IdentifiedBytecode> getClass(ClassIdentifier... names) {
+            var result = new ArrayList<IdentifiedBytecode>();
+            for (var name : names) {
+                var resource = name.getFullName().replace('.', '/') + ".class";
+                try (var is = ClassLoader.getSystemResourceAsStream(resource)) {
+                    if (is != null) {
+                        result.add(new IdentifiedBytecode(name, is.readAllBytes()));
+                    }
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public List<String> getClassPathListing() {
+            return null;
+        }
+    }
+
+    @Test
+    void testExtractDependenciesBatched() throws IOException {
+        var calls = new int[1];
+        var requested = new int[1];
+        var provider = new ResourceProvider() {
+            @Override
+            public Collection<IdentifiedBytecode> getClass(ClassIdentifier... names) {
+                ++calls[0];
+                requested[0] += names.length;
+                return super.getClass(names);
+            }
+        };
+
+        var className = "io.github.mkoncek.classpathless.util.extract.MultiNested$Nested1$Nested12$Nested121";
+        var bytecode = new ResourceProvider().getClass(new ClassIdentifier(className)).iterator().next();
+        var result = BytecodeExtractor.extractDependencies(bytecode, provider);
+
+        assertTrue(result.contains("io.github.mkoncek.classpathless.util.extract.MultiNested$Nested1$Nested11$Nested111"));
+        assertTrue(calls[0] < requested[0], calls[0] + " calls for " + requested[0] + " classes");
+    }
+
+    @Test
+    void testExtractDependenciesParallel() throws IOException {
+        var executor = Executors.newFixedThreadPool(4);
+        try {
+            for (var name : new String[] {
+                    "MultiNested$Nested1$Nested12$Nested121", "ExtendNestedInner", "Anonymous",
+                    "Inheritance", "LambdaReturnTypeNested", "TryResources"}) {
+                var className = "io.github.mkoncek.classpathless.util.extract." + name;
+                var bytecode = new ResourceProvider().getClass(new ClassIdentifier(className)).iterator().next();
+
+                var serialPhases = new ArrayList<TreeSet<String>>();
+                var parallelPhases = new ArrayList<TreeSet<String>>();
+                for (int i = 0; i != 3; ++i) {
+                    serialPhases.add(new TreeSet<>());
+                    parallelPhases.add(new TreeSet<>());
+                }
+
+                var serial = BytecodeExtractor.extractDependenciesImpl(bytecode, new ResourceProvider(),
+                        serialPhases.get(0)::add, serialPhases.get(1)::add, serialPhases.get(2)::add);
+                var parallel = BytecodeExtractor.extractDependenciesImpl(bytecode, new ResourceProvider(), executor,
+                        parallelPhases.get(0)::add, parallelPhases.get(1)::add, parallelPhases.get(2)::add);
+
+                assertFalse(serial.isEmpty());
+                assertEquals(new TreeSet<>(serial), new TreeSet<>(parallel), name);
+                assertEquals(serialPhases, parallelPhases, name);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
     @Test
     void testExtractFields() throws IOException {
         try (var is = new FileInputStream("target/test-classes/io/github/mkoncek/classpathless/util/extract/Fields.class")) {
@@ -500,6 +582,43 @@ public class BytecodeExtractorTest {
         }
     }
 
+    @Test
+    void testExtractApi() throws IOException {
+        try (var is = new FileInputStream("target/test-classes/io/github/mkoncek/classpathless/util/extract/Methods.class")) {
+            var bytes = is.readAllBytes();
+            var result = BytecodeExtractor.extractApi(bytes);
+            assertTrue(result.stream().anyMatch(element -> element.startsWith("method ") && element.contains(" f()V")));
+            assertTrue(result.stream().anyMatch(element -> element.contains(" h(ILjava/lang/String;)Ljava/lang/String;")));
+            assertTrue(result.stream().anyMatch(element -> element.startsWith("inner ")));
+            assertFalse(result.stream().anyMatch(element -> element.contains(" g()V")));
+            assertTrue(result.equals(BytecodeExtractor.extractApi(bytes)));
+        }
+        try (var is = new FileInputStream("target/test-classes/io/github/mkoncek/classpathless/util/extract/Fields.class")) {
+            var result = BytecodeExtractor.extractApi(is.readAllBytes());
+            assertTrue(result.stream().anyMatch(element -> element.startsWith("field ") && element.contains(" dummy2 ")));
+            assertTrue(result.stream().filter(element -> element.startsWith("field ")).count() == 3);
+        }
+        try (var is = new FileInputStream("target/test-classes/io/github/mkoncek/classpathless/util/extract/AnnotationMethod.class")) {
+            var result = BytecodeExtractor.extractApi(is.readAllBytes());
+            assertTrue(result.stream().anyMatch(element -> element.startsWith("method ") && element.contains(" method()V ")
+                    && element.endsWith(" annotation false L" + DUMMY_ANNOTATION_NAME.replace('.', '/') + ";()")));
+        }
+        try (var is = new FileInputStream("target/test-classes/io/github/mkoncek/classpathless/util/extract/DummyAnnotation.class")) {
+            var result = BytecodeExtractor.extractApi(is.readAllBytes());
+            assertTrue(result.contains("annotation true Ljava/lang/annotation/Retention;(value=Ljava/lang/annotation/RetentionPolicy;.CLASS)"));
+        }
+    }
+
+    @Test
+    void testExtractConstants() throws IOException {
+        try (var is = new FileInputStream("target/test-classes/io/github/mkoncek/classpathless/util/extract/Fields.class")) {
+            assertTrue(BytecodeExtractor.extractConstants(is.readAllBytes()).isEmpty());
+        }
+        try (var is = new FileInputStream("target/test-classes/io/github/mkoncek/classpathless/util/extract/Constants.class")) {
+            assertEquals(new TreeSet<>(List.of("NAME Ljava/lang/String; name", "VALUE I 1")), BytecodeExtractor.extractConstants(is.readAllBytes()));
+        }
+    }
+
     @Test
     void testExtractInheritance() throws IOException {
         try (var is = new FileInputStream("target/test-classes/io/github/mkoncek/classpathless/util/extract/Inheritance.class")) {